@@ -13,9 +13,11 @@ import android.support.v4.app.FragmentActivity;
 import android.view.View;
 import android.widget.Toast;
 
+import net.analogyc.wordiary.database.AsyncDBAdapter;
 import net.analogyc.wordiary.database.DBAdapter;
 import net.analogyc.wordiary.dialogs.NewEntryDialogFragment;
 import net.analogyc.wordiary.models.BitmapWorker;
+import net.analogyc.wordiary.models.Mood;
 import net.analogyc.wordiary.models.Photo;
 
 /**
@@ -32,7 +34,7 @@ public class BaseActivity extends FragmentActivity implements NewEntryDialogFrag
     protected final int CAPTURE_IMAGE_MIN_SPACE_MEGABYTES = 5;
 
     protected Uri mImageUri;
-    protected DBAdapter mDataBase;
+    protected AsyncDBAdapter mDataBase;
     protected BitmapWorker mBitmapWorker;
 
     @Override
@@ -42,8 +44,15 @@ public class BaseActivity extends FragmentActivity implements NewEntryDialogFrag
 
         mBitmapWorker = BitmapWorker.findOrCreateBitmapWorker(getSupportFragmentManager());
 
-        //get an instance of database
-        mDataBase = new DBAdapter(this);
+        //get an instance of database, all the queries run in background
+        mDataBase = new AsyncDBAdapter(this);
+    }
+
+    @Override
+    protected void onDestroy() {
+        //results for this activity aren't needed anymore
+        mDataBase.cancelAll();
+        super.onDestroy();
     }
 
     @Override
@@ -62,12 +71,6 @@ public class BaseActivity extends FragmentActivity implements NewEntryDialogFrag
         }
     }
 
-    @Override
-    protected void onPause() {
-        mDataBase.close();
-        super.onPause();
-    }
-
     /**
      * Brings back to the home page
      *
@@ -110,6 +113,16 @@ public class BaseActivity extends FragmentActivity implements NewEntryDialogFrag
         startActivity(intent);
     }
 
+    /**
+     * Opens the search
+     *
+     * @param view
+     */
+    public void onSearchClicked(View view) {
+        Intent intent = new Intent(this, SearchActivity.class);
+        startActivity(intent);
+    }
+
     /**
      * Runs the standard Android camera intent
      *
@@ -147,12 +160,18 @@ public class BaseActivity extends FragmentActivity implements NewEntryDialogFrag
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         if (requestCode == CAPTURE_IMAGE_ACTIVITY_REQUEST_CODE) {
             if (resultCode == RESULT_OK) {
-                mDataBase.addPhoto(mImageUri.getPath());
+                final String path = mImageUri.getPath();
+                mDataBase.write(new AsyncDBAdapter.Query<Void>() {
+                    @Override
+                    public Void run(DBAdapter database) {
+                        database.addPhoto(path);
+                        return null;
+                    }
+                }, null);
                 // Image captured and saved to fileUri specified in the Intent
                 Toast.makeText(this, getString(R.string.image_saved), TOAST_DURATION_L).show();
-                mBitmapWorker.clearBitmapFromMemCache("", mImageUri.getPath());
-                // clear also the thumbnails for the gallery
-                mBitmapWorker.clearBitmapFromMemCache("gallery_", mImageUri.getPath());
+                // clear the thumbnails of the list and of the gallery
+                mBitmapWorker.clearBitmapFromMemCache(mImageUri.getPath());
             }
         }
     }
@@ -167,11 +186,17 @@ public class BaseActivity extends FragmentActivity implements NewEntryDialogFrag
         Context context = getApplicationContext();
         CharSequence text;
 
-        String newMessage = message.trim();
+        final String newMessage = message.trim();
 
         if (!newMessage.equals("")) {
             text = getString(R.string.message_saved);
-            mDataBase.addEntry(newMessage, 0);
+            mDataBase.write(new AsyncDBAdapter.Query<Void>() {
+                @Override
+                public Void run(DBAdapter database) {
+                    database.addEntry(newMessage, Mood.NONE);
+                    return null;
+                }
+            }, null);
         } else {
             text = getString(R.string.message_not_saved);
         }
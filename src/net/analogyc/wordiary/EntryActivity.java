@@ -16,17 +16,20 @@ import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import net.analogyc.wordiary.database.AsyncDBAdapter;
+import net.analogyc.wordiary.database.DBAdapter;
+import net.analogyc.wordiary.database.DataBaseManager;
 import net.analogyc.wordiary.dialogs.ConfirmDialogFragment;
 import net.analogyc.wordiary.dialogs.ConfirmDialogFragment.ConfirmDialogListener;
 import net.analogyc.wordiary.dialogs.EditEntryDialogFragment;
 import net.analogyc.wordiary.dialogs.EditEntryDialogFragment.EditEntryDialogListener;
+import net.analogyc.wordiary.models.DateCodec;
 import net.analogyc.wordiary.models.DateFormats;
 import net.analogyc.wordiary.models.EntryFont;
+import net.analogyc.wordiary.models.Mood;
+import net.analogyc.wordiary.models.MoodRegistry;
 
 import java.io.File;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.Locale;
 
 public class EntryActivity extends BaseActivity implements EditEntryDialogListener, ConfirmDialogListener {
@@ -34,15 +37,21 @@ public class EntryActivity extends BaseActivity implements EditEntryDialogListen
     private final int MOOD_RESULT_CODE = 101;
     private int mEntryId;
     private int mDayId;
+    //the entry shown and its creation date, enough to know if it can still be modified
+    private int mLoadedEntryId = -1;
+    private long mEntryCreated;
     private TextView mMessageText, mDateText;
     private ImageView mPhotoButton, mMoodImage;
     private Button mSetNewMoodButton, mEditEntryButton, mPhotoDeleteButton;
+    private MoodRegistry mMoodRegistry;
 
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
+        mMoodRegistry = MoodRegistry.getInstance(this);
+
         Intent intent = getIntent();
         //get the id of the selected entry (normally mEntryId can't be -1)
         mEntryId = intent.getIntExtra("entryId", -1);
@@ -79,8 +88,15 @@ public class EntryActivity extends BaseActivity implements EditEntryDialogListen
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         if (requestCode == MOOD_RESULT_CODE) {
             if (resultCode == RESULT_OK) {
-                String moodId = data.getStringExtra("moodId");
-                mDataBase.updateMood(mEntryId, moodId);
+                final int mood = data.getIntExtra("moodId", Mood.NONE);
+                final int entryId = mEntryId;
+                mDataBase.write(new AsyncDBAdapter.Query<Void>() {
+                    @Override
+                    public Void run(DBAdapter database) {
+                        database.updateMood(entryId, mood);
+                        return null;
+                    }
+                }, null);
                 setView();
             }
         } else {
@@ -112,12 +128,6 @@ public class EntryActivity extends BaseActivity implements EditEntryDialogListen
         mEditEntryButton = (Button) findViewById(R.id.editEntryButton);
         mPhotoDeleteButton = (Button) findViewById(R.id.photoDeleteButton);
 
-        //if grace period is ended change button color
-        if (!mDataBase.isEditableEntry(mEntryId)) {
-            mSetNewMoodButton.setTextColor(0xFFBBBBBB);
-            mEditEntryButton.setTextColor(0xFFBBBBBB);
-        }
-
         // we keep this in onStart because the user might have changed the font in Preferences and come back to Entry
         SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(this);
         int typefaceInt = Integer.parseInt(preferences.getString("typeface", "1"));
@@ -146,34 +156,53 @@ public class EntryActivity extends BaseActivity implements EditEntryDialogListen
                 mMessageText.setTextSize(EntryFont.SIZE_MEDIUM);
         }
 
-        //get entry's informations from db
-        Cursor c_entry = mDataBase.getEntryById(mEntryId);
-        if (!c_entry.moveToFirst()) {
+        //get entry's informations from db, in background
+        final int entryId = mEntryId;
+        mDataBase.read("entry_view:" + entryId, new AsyncDBAdapter.Query<EntryData>() {
+            @Override
+            public EntryData run(DBAdapter database) {
+                return EntryData.load(database, entryId);
+            }
+        }, new AsyncDBAdapter.Callback<EntryData>() {
+            @Override
+            public void onResult(EntryData data) {
+                //another entry has been opened in the meantime
+                if (entryId != mEntryId) {
+                    return;
+                }
+                bindView(data);
+            }
+        });
+    }
+
+    /**
+     * Fills the view with the data read from the database
+     *
+     * @param data The entry and its day
+     */
+    protected void bindView(EntryData data) {
+        if (data == null) {
             //won't happen if MainActivity uses correct entryIds
             throw new RuntimeException("Wrong entry id");
         }
+
+        mLoadedEntryId = mEntryId;
+        mEntryCreated = data.mCreated;
+
+        //if grace period is ended change button color
+        if (!isEditable()) {
+            mSetNewMoodButton.setTextColor(0xFFBBBBBB);
+            mEditEntryButton.setTextColor(0xFFBBBBBB);
+        }
+
         //set message
-        String message = c_entry.getString(2);
-        mMessageText.setText(message);
+        mMessageText.setText(data.mMessage);
         //set mood
-        String mood = c_entry.getString(3);
-        if (mood != null) {
-            int identifier = getResources().getIdentifier(mood, "drawable", R.class.getPackage().getName());
-            mMoodImage.setImageResource(identifier);
-        }
+        mMoodRegistry.bind(mMoodImage, data.mMood);
         //set date
-        String d_tmp = c_entry.getString(4);
-        SimpleDateFormat format_in = new SimpleDateFormat(DateFormats.DATABASE, Locale.ITALY);
-        SimpleDateFormat format_out = new SimpleDateFormat(DateFormats.ENTRY, Locale.ITALY);
-        try {
-            Date date = format_in.parse(d_tmp);
-            mDateText.setText(format_out.format(date)); //probably a better method to do this exists
-        } catch (ParseException e) {
-            //won't happen if we use only dataBase.addEntry(...)
-            mDateText.setText("??.??.????");
-        }
+        mDateText.setText(DateCodec.format(DateFormats.ENTRY, Locale.ITALY, data.mCreated));
 
-        mDayId = c_entry.getInt(1);
+        mDayId = data.mDayId;
 
         // make the image about square
         Display display = ((WindowManager) getSystemService(Context.WINDOW_SERVICE)).getDefaultDisplay();
@@ -182,11 +211,9 @@ public class EntryActivity extends BaseActivity implements EditEntryDialogListen
         mPhotoButton.setMaxWidth(dm.widthPixels);
         mPhotoButton.setMaxHeight(dm.widthPixels);
 
-        Cursor c_photo = mDataBase.getDayById(mDayId);
-        c_photo.moveToFirst();
         String path = null;
-        if (!c_photo.getString(1).equals("")) {
-            path = c_photo.getString(1);
+        if (!data.mFilename.equals("")) {
+            path = data.mFilename;
         } else {
             mPhotoButton.setClickable(false);
             mPhotoDeleteButton.setVisibility(View.INVISIBLE);
@@ -199,21 +226,40 @@ public class EntryActivity extends BaseActivity implements EditEntryDialogListen
                 .setHighQuality(true)
                 .setCenterCrop(true)
                 .execute();
-        c_photo.close();
-
-
-        c_entry.close();
 
         //check if this entry has a previous and a next
-        updatePrevNextButtons();
+        setPrevNextButtons(data.mHasPrevious, data.mHasNext);
     }
 
     /**
-     * Updates the clickability and color of the arrows on top of the view
+     * Reads in background if the entry has a previous and a next, and updates the arrows
      */
     protected void updatePrevNextButtons() {
+        final int entryId = mEntryId;
+        mDataBase.read("entry_neighbours:" + entryId, new AsyncDBAdapter.Query<boolean[]>() {
+            @Override
+            public boolean[] run(DBAdapter database) {
+                return new boolean[]{database.hasNextEntry(entryId, true), database.hasNextEntry(entryId, false)};
+            }
+        }, new AsyncDBAdapter.Callback<boolean[]>() {
+            @Override
+            public void onResult(boolean[] result) {
+                if (entryId == mEntryId) {
+                    setPrevNextButtons(result[0], result[1]);
+                }
+            }
+        });
+    }
+
+    /**
+     * Updates the clickability and color of the arrows on top of the view
+     *
+     * @param hasPrevious Whether there's a previous entry
+     * @param hasNext     Whether there's a next entry
+     */
+    protected void setPrevNextButtons(boolean hasPrevious, boolean hasNext) {
         Button nextB = (Button) this.findViewById(R.id.nextEntryButton);
-        if (!mDataBase.hasNextEntry(mEntryId, false)) {
+        if (!hasNext) {
             nextB.setClickable(false);
             nextB.setTextColor(0xFFBBBBBB);
         } else {
@@ -222,7 +268,7 @@ public class EntryActivity extends BaseActivity implements EditEntryDialogListen
         }
 
         Button prevB = (Button) this.findViewById(R.id.prevEntryButton);
-        if (!mDataBase.hasNextEntry(mEntryId, true)) {
+        if (!hasPrevious) {
             prevB.setClickable(false);
             prevB.setTextColor(0xFFBBBBBB);
         } else {
@@ -231,6 +277,36 @@ public class EntryActivity extends BaseActivity implements EditEntryDialogListen
         }
     }
 
+    /**
+     * Whether the entry is still within the grace period, without asking the database again
+     * The grace period is kept up to date by DataBaseManager when the preference changes
+     *
+     * @return True if the loaded entry can be modified
+     */
+    protected boolean isEditable() {
+        long gracePeriod = DataBaseManager.getInstance(this).getGracePeriod();
+        return System.currentTimeMillis() < mEntryCreated + gracePeriod;
+    }
+
+    /**
+     * Runs the action if the entry is still within the grace period, or tells the user it isn't
+     *
+     * @param onEditable Run if the entry can be modified
+     */
+    protected void whenEditable(Runnable onEditable) {
+        //the entry hasn't been loaded yet
+        if (mLoadedEntryId != mEntryId) {
+            return;
+        }
+
+        if (isEditable()) {
+            onEditable.run();
+        } else {
+            Toast toast = Toast.makeText(getBaseContext(), getString(R.string.grace_period_ended), TOAST_DURATION_S);
+            toast.show();
+        }
+    }
+
     /**
      * Displays the full image
      *
@@ -248,15 +324,14 @@ public class EntryActivity extends BaseActivity implements EditEntryDialogListen
      * @param view
      */
     public void onMoodButtonClicked(View view) {
-        if (!mDataBase.isEditableEntry(mEntryId)) {
-            Toast toast = Toast.makeText(getBaseContext(), getString(R.string.grace_period_ended), TOAST_DURATION_S);
-            toast.show();
-            return;
-        }
-
-        Intent intent = new Intent(this, MoodsActivity.class);
-        intent.putExtra("entryId", mEntryId);
-        startActivityForResult(intent, MOOD_RESULT_CODE);
+        whenEditable(new Runnable() {
+            @Override
+            public void run() {
+                Intent intent = new Intent(EntryActivity.this, MoodsActivity.class);
+                intent.putExtra("entryId", mEntryId);
+                startActivityForResult(intent, MOOD_RESULT_CODE);
+            }
+        });
     }
 
     /**
@@ -293,31 +368,56 @@ public class EntryActivity extends BaseActivity implements EditEntryDialogListen
     public void onConfirmedClick(int id) {
 
         // 0 = deleteEntry, 1 = DeletePhoto
+        final int entryId = mEntryId;
+        final int dayId = mDayId;
         switch (id) {
             case 0:
-                mDataBase.deleteEntryById(mEntryId);
-                Toast toast = Toast.makeText(getBaseContext(), getString(R.string.message_deleted), TOAST_DURATION_S);
-                toast.show();
-                if (mDataBase.hasNextEntry(mEntryId, true)) {
-                    //move to the previous entry
-                    moveNext(true);
-                } else {
-                    //Now EntryActivity has no reason to be visible
-                    finish();
-                }
+                mDataBase.write(new AsyncDBAdapter.Query<Boolean>() {
+                    @Override
+                    public Boolean run(DBAdapter database) {
+                        database.deleteEntryById(entryId);
+                        return database.hasNextEntry(entryId, true);
+                    }
+                }, new AsyncDBAdapter.Callback<Boolean>() {
+                    @Override
+                    public void onResult(Boolean hasPrevious) {
+                        Toast toast = Toast.makeText(getBaseContext(), getString(R.string.message_deleted), TOAST_DURATION_S);
+                        toast.show();
+                        if (hasPrevious) {
+                            //move to the previous entry
+                            moveNext(true);
+                        } else {
+                            //Now EntryActivity has no reason to be visible
+                            finish();
+                        }
+                    }
+                });
                 break;
             case 1:
-                Cursor day = mDataBase.getDayById(mDayId);
-                day.moveToFirst();
-                String filename = day.getString(1);
-                day.close();
-                File photo = new File(filename);
-                if (photo.delete()) {
-                    mDataBase.deletePhoto(mDayId);
-                    Toast toast1 = Toast.makeText(getBaseContext(), R.string.photo_deleted, TOAST_DURATION_S);
-                    toast1.show();
-                }
-                setView();
+                mDataBase.write(new AsyncDBAdapter.Query<Boolean>() {
+                    @Override
+                    public Boolean run(DBAdapter database) {
+                        Cursor day = database.getDayById(dayId);
+                        day.moveToFirst();
+                        String filename = day.getString(1);
+                        day.close();
+                        File photo = new File(filename);
+                        if (photo.delete()) {
+                            database.deletePhoto(dayId);
+                            return true;
+                        }
+                        return false;
+                    }
+                }, new AsyncDBAdapter.Callback<Boolean>() {
+                    @Override
+                    public void onResult(Boolean deleted) {
+                        if (deleted) {
+                            Toast toast1 = Toast.makeText(getBaseContext(), R.string.photo_deleted, TOAST_DURATION_S);
+                            toast1.show();
+                        }
+                        setView();
+                    }
+                });
         }
     }
 
@@ -327,14 +427,25 @@ public class EntryActivity extends BaseActivity implements EditEntryDialogListen
      * @param view
      */
     public void onPhotoDelete(View view) {
-        if (mDataBase.isEditableDay(mDayId)) {
-            ConfirmDialogFragment newFragment = new ConfirmDialogFragment();
-            newFragment.setId(1);
-            newFragment.show(getSupportFragmentManager(), "Confirm");
-        } else {
-            Toast toast = Toast.makeText(getBaseContext(), R.string.grace_period_ended, TOAST_DURATION_S);
-            toast.show();
-        }
+        final int dayId = mDayId;
+        mDataBase.read("day_editable:" + dayId, new AsyncDBAdapter.Query<Boolean>() {
+            @Override
+            public Boolean run(DBAdapter database) {
+                return database.isEditableDay(dayId);
+            }
+        }, new AsyncDBAdapter.Callback<Boolean>() {
+            @Override
+            public void onResult(Boolean editable) {
+                if (editable) {
+                    ConfirmDialogFragment newFragment = new ConfirmDialogFragment();
+                    newFragment.setId(1);
+                    newFragment.show(getSupportFragmentManager(), "Confirm");
+                } else {
+                    Toast toast = Toast.makeText(getBaseContext(), R.string.grace_period_ended, TOAST_DURATION_S);
+                    toast.show();
+                }
+            }
+        });
     }
 
     /**
@@ -343,17 +454,16 @@ public class EntryActivity extends BaseActivity implements EditEntryDialogListen
      * @param view
      */
     public void onEditButtonClicked(View view) {
-        if (!mDataBase.isEditableEntry(mEntryId)) {
-            Toast toast = Toast.makeText(getBaseContext(), getString(R.string.grace_period_ended), TOAST_DURATION_S);
-            toast.show();
-            return;
-        }
-
-        EditEntryDialogFragment editFragment = new EditEntryDialogFragment();
-        Bundle args = new Bundle();
-        args.putString("message", (String) mMessageText.getText());
-        editFragment.setArguments(args);
-        editFragment.show(getSupportFragmentManager(), "modifyEntry");
+        whenEditable(new Runnable() {
+            @Override
+            public void run() {
+                EditEntryDialogFragment editFragment = new EditEntryDialogFragment();
+                Bundle args = new Bundle();
+                args.putString("message", mMessageText.getText().toString());
+                editFragment.setArguments(args);
+                editFragment.show(getSupportFragmentManager(), "modifyEntry");
+            }
+        });
     }
 
     /**
@@ -365,11 +475,18 @@ public class EntryActivity extends BaseActivity implements EditEntryDialogListen
         Context context = getApplicationContext();
         CharSequence text;
 
-        String newMessage = message.trim();
+        final String newMessage = message.trim();
 
         if (!newMessage.equals("")) {
             text = getString(R.string.message_saved);
-            mDataBase.updateMessage(mEntryId, newMessage);
+            final int entryId = mEntryId;
+            mDataBase.write(new AsyncDBAdapter.Query<Void>() {
+                @Override
+                public Void run(DBAdapter database) {
+                    database.updateMessage(entryId, newMessage);
+                    return null;
+                }
+            }, null);
             setView();
         } else {
             text = getString(R.string.message_not_saved);
@@ -414,12 +531,69 @@ public class EntryActivity extends BaseActivity implements EditEntryDialogListen
      *
      * @param backwards true to go back, false otherwise
      */
-    public void moveNext(boolean backwards) {
-        Cursor nextEntry = mDataBase.getNextEntry(mEntryId, backwards);
-        nextEntry.moveToFirst();
-        int next = nextEntry.getInt(0);
-        mEntryId = next;
-        nextEntry.close();
-        setView();
+    public void moveNext(final boolean backwards) {
+        final int entryId = mEntryId;
+        mDataBase.read("entry_next:" + entryId + ":" + backwards, new AsyncDBAdapter.Query<Integer>() {
+            @Override
+            public Integer run(DBAdapter database) {
+                Cursor nextEntry = database.getNextEntry(entryId, backwards);
+                nextEntry.moveToFirst();
+                int next = nextEntry.getInt(0);
+                nextEntry.close();
+                return next;
+            }
+        }, new AsyncDBAdapter.Callback<Integer>() {
+            @Override
+            public void onResult(Integer next) {
+                if (entryId == mEntryId) {
+                    mEntryId = next;
+                    setView();
+                }
+            }
+        });
+    }
+
+    /**
+     * All that's displayed about an entry, read in a single trip to the database
+     */
+    protected static class EntryData {
+        protected String mMessage;
+        protected int mMood;
+        protected long mCreated;
+        protected int mDayId;
+        protected String mFilename;
+        protected boolean mHasPrevious;
+        protected boolean mHasNext;
+
+        /**
+         * Reads the entry and its day, must be run off the UI thread
+         *
+         * @param database an open DBAdapter
+         * @param entryId  the entry id
+         * @return the data, or null if there's no such entry
+         */
+        protected static EntryData load(DBAdapter database, int entryId) {
+            Cursor c_entry = database.getEntryById(entryId);
+            if (!c_entry.moveToFirst()) {
+                c_entry.close();
+                return null;
+            }
+
+            EntryData data = new EntryData();
+            data.mDayId = c_entry.getInt(1);
+            data.mMessage = c_entry.getString(2);
+            data.mMood = c_entry.getInt(3);
+            data.mCreated = c_entry.getLong(4);
+            c_entry.close();
+
+            Cursor c_photo = database.getDayById(data.mDayId);
+            c_photo.moveToFirst();
+            data.mFilename = c_photo.getString(1);
+            c_photo.close();
+
+            data.mHasPrevious = database.hasNextEntry(entryId, true);
+            data.mHasNext = database.hasNextEntry(entryId, false);
+            return data;
+        }
     }
 }
@@ -2,11 +2,14 @@ package net.analogyc.wordiary;
 
 import android.content.Intent;
 import android.view.View;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
 import android.widget.GridView;
 
 import net.analogyc.wordiary.adapters.PhotoAdapter;
+import net.analogyc.wordiary.database.AsyncDBAdapter;
+import net.analogyc.wordiary.database.DBAdapter;
 
 /**
  * Shows the images on a grid
@@ -21,12 +24,53 @@ public class GalleryActivity extends BaseActivity {
         setView();
     }
 
+    @Override
+    protected void onDestroy() {
+        releaseCells();
+        super.onDestroy();
+    }
+
     protected void setView() {
+        //the cells of the previous grid are thrown away
+        releaseCells();
+
         //set a new content view
         setContentView(R.layout.activity_gallery);
 
         mGridView = (GridView) findViewById(R.id.photoGrid);
-        mGridView.setAdapter(new PhotoAdapter(this, mBitmapWorker));
+        final GridView gridView = mGridView;
+
+        //cells out of sight give their images back, they are shown again when the cell is reused
+        gridView.setRecyclerListener(new AbsListView.RecyclerListener() {
+            @Override
+            public void onMovedToScrapHeap(View view) {
+                if (gridView.getAdapter() instanceof PhotoAdapter) {
+                    ((PhotoAdapter) gridView.getAdapter()).recycle(view);
+                }
+            }
+        });
+
+        mDataBase.read("photos", new AsyncDBAdapter.Query<PhotoAdapter.Photos>() {
+            @Override
+            public PhotoAdapter.Photos run(DBAdapter database) {
+                return PhotoAdapter.loadPhotos(database);
+            }
+        }, new AsyncDBAdapter.Callback<PhotoAdapter.Photos>() {
+            @Override
+            public void onResult(PhotoAdapter.Photos photos) {
+                //the view has been reloaded in the meantime
+                if (gridView != mGridView) {
+                    return;
+                }
+
+                //if there's no photo show a message
+                if (photos.isEmpty()) {
+                    setContentView(R.layout.activity_gallery_nophotos);
+                } else {
+                    gridView.setAdapter(new PhotoAdapter(GalleryActivity.this, mBitmapWorker, photos));
+                }
+            }
+        });
 
         mGridView.setOnItemClickListener(new OnItemClickListener() {
 
@@ -38,10 +82,19 @@ public class GalleryActivity extends BaseActivity {
                 startActivity(intent);
             }
         });
+    }
+
+    /**
+     * Releases the images of the cells on screen
+     */
+    private void releaseCells() {
+        if (mGridView == null || !(mGridView.getAdapter() instanceof PhotoAdapter)) {
+            return;
+        }
 
-        //if there's no photo show a message
-        if (mGridView.getAdapter().getCount() <= 0) {
-            setContentView(R.layout.activity_gallery_nophotos);
+        PhotoAdapter adapter = (PhotoAdapter) mGridView.getAdapter();
+        for (int i = 0; i < mGridView.getChildCount(); i++) {
+            adapter.recycle(mGridView.getChildAt(i));
         }
     }
 
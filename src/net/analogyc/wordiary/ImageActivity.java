@@ -9,16 +9,14 @@ import android.view.View;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import net.analogyc.wordiary.database.AsyncDBAdapter;
+import net.analogyc.wordiary.database.DBAdapter;
 import net.analogyc.wordiary.dialogs.ConfirmDialogFragment;
 import net.analogyc.wordiary.dialogs.ConfirmDialogFragment.ConfirmDialogListener;
-import net.analogyc.wordiary.models.DateFormats;
+import net.analogyc.wordiary.models.DateCodec;
 import net.analogyc.wordiary.views.ImageWebView;
 
 import java.io.File;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
 
 /**
  * Displays the full image in a custom WebView to zoom on it
@@ -55,14 +53,29 @@ public class ImageActivity extends BaseActivity implements ConfirmDialogListener
      *
      * @param backwards If we actually want a getPrev
      */
-    public void getNext(boolean backwards) {
-        Cursor c = mDataBase.getNextDay(mDayId, backwards);
-        if (c.getCount() == 1) {
-            c.moveToNext();
-            mDayId = c.getInt(0);
-            setView();
-        }
-        c.close();
+    public void getNext(final boolean backwards) {
+        final int dayId = mDayId;
+        mDataBase.read("day_next:" + dayId + ":" + backwards, new AsyncDBAdapter.Query<Integer>() {
+            @Override
+            public Integer run(DBAdapter database) {
+                Cursor c = database.getNextDay(dayId, backwards);
+                int next = -1;
+                if (c.getCount() == 1) {
+                    c.moveToNext();
+                    next = c.getInt(0);
+                }
+                c.close();
+                return next;
+            }
+        }, new AsyncDBAdapter.Callback<Integer>() {
+            @Override
+            public void onResult(Integer next) {
+                if (next != -1 && dayId == mDayId) {
+                    mDayId = next;
+                    setView();
+                }
+            }
+        });
     }
 
     /**
@@ -107,25 +120,32 @@ public class ImageActivity extends BaseActivity implements ConfirmDialogListener
             }
         });
 
-        Cursor c = mDataBase.getDayById(mDayId);
-        c.moveToFirst();
-        String location = "file://" + c.getString(1);
-        setCurrentImage(location);
-
-        String dateString = c.getString(2);
-        SimpleDateFormat format_in = new SimpleDateFormat(DateFormats.DATABASE, Locale.getDefault());
-        SimpleDateFormat format_out = new SimpleDateFormat(DateFormats.IMAGE, Locale.getDefault());
+        final int dayId = mDayId;
+        mDataBase.read("day:" + dayId, new AsyncDBAdapter.Query<String[]>() {
+            @Override
+            public String[] run(DBAdapter database) {
+                Cursor c = database.getDayById(dayId);
+                c.moveToFirst();
+                //the filename and the label of the day
+                String[] day = new String[]{c.getString(1), DateCodec.getDayLabel(c.getInt(3))};
+                c.close();
+                return day;
+            }
+        }, new AsyncDBAdapter.Callback<String[]>() {
+            @Override
+            public void onResult(String[] day) {
+                if (dayId != mDayId) {
+                    return;
+                }
 
-        try {
-            Date date = format_in.parse(dateString);
-            mDateText.setText(format_out.format(date));
-        } catch (ParseException e) {
-            e.printStackTrace();
-        }
+                String location = "file://" + day[0];
+                setCurrentImage(location);
 
-        c.close();
+                mDateText.setText(day[1]);
 
-        mImageWebView.setImage(location);
+                mImageWebView.setImage(location);
+            }
+        });
     }
 
     /**
@@ -165,20 +185,27 @@ public class ImageActivity extends BaseActivity implements ConfirmDialogListener
      * @param view
      */
     public void onDeleteImageButtonClicked(View view) {
-        Cursor day = mDataBase.getDayById(mDayId);
-        day.moveToFirst();
-        int dayId = day.getInt(0);
-        day.close();
+        final int dayId = mDayId;
         //control if photo is editable
-        if (mDataBase.isEditableDay(dayId)) {
-            //ask if user really wants to proceed
-            ConfirmDialogFragment newFragment = new ConfirmDialogFragment();
-            newFragment.setId(0);
-            newFragment.show(getSupportFragmentManager(), "Confirm");
-        } else {
-            Toast toast = Toast.makeText(getBaseContext(), R.string.grace_period_ended, TOAST_DURATION_S);
-            toast.show();
-        }
+        mDataBase.read("day_editable:" + dayId, new AsyncDBAdapter.Query<Boolean>() {
+            @Override
+            public Boolean run(DBAdapter database) {
+                return database.isEditableDay(dayId);
+            }
+        }, new AsyncDBAdapter.Callback<Boolean>() {
+            @Override
+            public void onResult(Boolean editable) {
+                if (editable) {
+                    //ask if user really wants to proceed
+                    ConfirmDialogFragment newFragment = new ConfirmDialogFragment();
+                    newFragment.setId(0);
+                    newFragment.show(getSupportFragmentManager(), "Confirm");
+                } else {
+                    Toast toast = Toast.makeText(getBaseContext(), R.string.grace_period_ended, TOAST_DURATION_S);
+                    toast.show();
+                }
+            }
+        });
     }
 
     /**
@@ -187,20 +214,34 @@ public class ImageActivity extends BaseActivity implements ConfirmDialogListener
      * @param id the dialog id
      */
     public void onConfirmedClick(int id) {
-        //get photo filename
-        Cursor day = mDataBase.getDayById(mDayId);
-        day.moveToFirst();
-        String filename = day.getString(1);
-        day.close();
-        //delete photo
-        File photo = new File(filename);
-        if (photo.delete()) {
-            mDataBase.deletePhoto(mDayId);
-            Toast toast = Toast.makeText(getBaseContext(), R.string.photo_deleted, TOAST_DURATION_S);
-            toast.show();
-        }
+        final int dayId = mDayId;
+        mDataBase.write(new AsyncDBAdapter.Query<Boolean>() {
+            @Override
+            public Boolean run(DBAdapter database) {
+                //get photo filename
+                Cursor day = database.getDayById(dayId);
+                day.moveToFirst();
+                String filename = day.getString(1);
+                day.close();
+                //delete photo
+                File photo = new File(filename);
+                if (photo.delete()) {
+                    database.deletePhoto(dayId);
+                    return true;
+                }
+                return false;
+            }
+        }, new AsyncDBAdapter.Callback<Boolean>() {
+            @Override
+            public void onResult(Boolean deleted) {
+                if (deleted) {
+                    Toast toast = Toast.makeText(getBaseContext(), R.string.photo_deleted, TOAST_DURATION_S);
+                    toast.show();
+                }
 
-        finish();
+                finish();
+            }
+        });
     }
 
     /**
@@ -7,31 +7,62 @@ import android.graphics.Typeface;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.view.View;
+import android.widget.AbsListView;
 import android.widget.ExpandableListView;
 import android.widget.Toast;
 
 import net.analogyc.wordiary.adapters.EntryListAdapter;
 import net.analogyc.wordiary.adapters.EntryListAdapter.OptionDayListener;
 import net.analogyc.wordiary.adapters.EntryListAdapter.OptionEntryListener;
+import net.analogyc.wordiary.database.AsyncDBAdapter;
+import net.analogyc.wordiary.database.DBAdapter;
+import net.analogyc.wordiary.database.DataBaseManager;
+import net.analogyc.wordiary.database.DataChangeListener;
 import net.analogyc.wordiary.dialogs.OptionEntryDialogFragment;
 import net.analogyc.wordiary.dialogs.OptionEntryDialogFragment.OptionEntryDialogListener;
 import net.analogyc.wordiary.models.EntryFont;
 
-import java.util.ArrayList;
-
 /**
  * Displays the list of days as parents and entries as children
+ * The list is loaded once, then every change to the database is patched into it
  */
-public class MainActivity extends BaseActivity implements OptionEntryDialogListener, OptionEntryListener, OptionDayListener {
+public class MainActivity extends BaseActivity implements OptionEntryDialogListener, OptionEntryListener, OptionDayListener,
+        DataChangeListener {
+
+    //how many rows before the end of the list the next page of days is requested
+    private static final int PRELOAD_ROWS = 10;
 
     private ExpandableListView mEntryList;
     protected long[] mExpandedIds;
+    //whether the first day should be expanded as soon as it's loaded
+    private boolean mExpandFirstDay;
+    //whether the "no entries" message is shown instead of the list
+    private boolean mShowingNoEntries;
+
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        DataBaseManager.getInstance(this).addChangeListener(this);
+    }
 
+    @Override
+    protected void onDestroy() {
+        DataBaseManager.getInstance(this).removeChangeListener(this);
+        super.onDestroy();
+    }
 
     @Override
     protected void onStart() {
         super.onStart();
-        showEntries();
+        EntryListAdapter adapter = getEntryAdapter();
+        if (adapter == null) {
+            showEntries();
+        } else {
+            //the list is kept up to date by the change listener, only the font might have been changed
+            setChildFont(adapter);
+            adapter.notifyDataSetChanged();
+        }
     }
 
     @Override
@@ -63,11 +94,84 @@ public class MainActivity extends BaseActivity implements OptionEntryDialogListe
     protected void showEntries() {
         //set a new content view
         setContentView(R.layout.activity_main);
+        mShowingNoEntries = false;
 
         mEntryList = (ExpandableListView) findViewById(R.id.entries);
-        EntryListAdapter entryAdapter = new EntryListAdapter(this, mBitmapWorker);
+        final EntryListAdapter entryAdapter = new EntryListAdapter(this, mBitmapWorker, mDataBase);
+
+        setChildFont(entryAdapter);
+
+        mEntryList.setAdapter(entryAdapter);
 
-        //set the typeface and font size
+        //load older days when the user gets near the end of the list
+        mEntryList.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                EntryListAdapter adapter = (EntryListAdapter) mEntryList.getExpandableListAdapter();
+                if (adapter.hasMore() && firstVisibleItem + visibleItemCount >= totalItemCount - PRELOAD_ROWS) {
+                    adapter.loadMore(null);
+                }
+            }
+        });
+
+        //the first page is read in background
+        entryAdapter.loadMore(new Runnable() {
+            @Override
+            public void run() {
+                //the list has been reloaded in the meantime
+                if (mEntryList.getExpandableListAdapter() != entryAdapter) {
+                    return;
+                }
+
+                //show a message if there's no entry/photo
+                if (entryAdapter.getGroupCount() <= 0) {
+                    showNoEntries();
+                    return;
+                }
+
+                if (mExpandFirstDay) {
+                    mExpandFirstDay = false;
+                    mEntryList.expandGroup(0);
+                }
+
+                //restore previous list state
+                if (mExpandedIds != null) {
+                    restoreListState();
+                }
+            }
+        });
+    }
+
+    /**
+     * Shows a message instead of the list, when there's no entry/photo
+     */
+    private void showNoEntries() {
+        setContentView(R.layout.activity_main_noentries);
+        mShowingNoEntries = true;
+    }
+
+    /**
+     * Returns the adapter of the list being shown
+     *
+     * @return The adapter, or null if the list isn't shown
+     */
+    private EntryListAdapter getEntryAdapter() {
+        if (mEntryList == null || mShowingNoEntries) {
+            return null;
+        }
+        return (EntryListAdapter) mEntryList.getExpandableListAdapter();
+    }
+
+    /**
+     * Sets the typeface and font size chosen in the preferences
+     *
+     * @param entryAdapter The adapter of the list
+     */
+    private void setChildFont(EntryListAdapter entryAdapter) {
         SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(this);
         int typefaceInt = Integer.parseInt(preferences.getString("typeface", "1"));
         Typeface typeface;
@@ -96,19 +200,6 @@ public class MainActivity extends BaseActivity implements OptionEntryDialogListe
         }
 
         entryAdapter.setChildFont(typeface, textSize);
-
-        mEntryList.setAdapter(entryAdapter);
-
-        //restore previous list state
-        if (mExpandedIds != null) {
-            restoreListState();
-        }
-
-        //show a message if there's no entry/photo
-        if (entryAdapter.getGroupCount() <= 0) {
-            setContentView(R.layout.activity_main_noentries);
-        }
-
     }
 
     /**
@@ -161,16 +252,21 @@ public class MainActivity extends BaseActivity implements OptionEntryDialogListe
     }
 
     /**
-     * Removes the entry and reloads the entry list
+     * Removes the entry, the list is updated by onEntryDeleted()
      *
      * @param id The id of the entry to delete
      */
     @Override
-    public void deleteSelectedEntry(int id) {
-        mDataBase.deleteEntryById(id);
+    public void deleteSelectedEntry(final int id) {
+        mDataBase.write(new AsyncDBAdapter.Query<Void>() {
+            @Override
+            public Void run(DBAdapter database) {
+                database.deleteEntryById(id);
+                return null;
+            }
+        }, null);
         Toast toast = Toast.makeText(this, getString(R.string.message_deleted), TOAST_DURATION_S);
         toast.show();
-        showEntries();
     }
 
     /**
@@ -179,16 +275,26 @@ public class MainActivity extends BaseActivity implements OptionEntryDialogListe
      * @param id The id of the entry
      */
     @Override
-    public void shareSelectedEntry(int id) {
-        Intent sharingIntent = new Intent(android.content.Intent.ACTION_SEND);
-        sharingIntent.setType("text/plain");
-        Cursor entry = mDataBase.getEntryById(id);
-        entry.moveToFirst();
-        String shareBody = entry.getString(2);
-        entry.close();
-        sharingIntent.putExtra(android.content.Intent.EXTRA_SUBJECT, "Wordiary");
-        sharingIntent.putExtra(android.content.Intent.EXTRA_TEXT, shareBody);
-        startActivity(Intent.createChooser(sharingIntent, getString(R.string.share_via)));
+    public void shareSelectedEntry(final int id) {
+        mDataBase.read("entry_message:" + id, new AsyncDBAdapter.Query<String>() {
+            @Override
+            public String run(DBAdapter database) {
+                Cursor entry = database.getEntryById(id);
+                entry.moveToFirst();
+                String message = entry.getString(2);
+                entry.close();
+                return message;
+            }
+        }, new AsyncDBAdapter.Callback<String>() {
+            @Override
+            public void onResult(String shareBody) {
+                Intent sharingIntent = new Intent(android.content.Intent.ACTION_SEND);
+                sharingIntent.setType("text/plain");
+                sharingIntent.putExtra(android.content.Intent.EXTRA_SUBJECT, "Wordiary");
+                sharingIntent.putExtra(android.content.Intent.EXTRA_TEXT, shareBody);
+                startActivity(Intent.createChooser(sharingIntent, getString(R.string.share_via)));
+            }
+        });
     }
 
 
@@ -197,19 +303,23 @@ public class MainActivity extends BaseActivity implements OptionEntryDialogListe
      */
     protected void setExpandedIds() {
         EntryListAdapter adapter = (EntryListAdapter) (mEntryList.getExpandableListAdapter());
+        //nothing loaded yet, keep the previous state
+        if (adapter == null || adapter.getGroupCount() == 0) {
+            return;
+        }
         int length = adapter.getGroupCount();
-        ArrayList<Long> ids = new ArrayList<Long>();
-        //get expandable ids
+        //count the expanded days first, so the ids fit an exact long[]
+        int expanded = 0;
         for (int i = 0; i < length; i++) {
             if (mEntryList.isGroupExpanded(i)) {
-                ids.add(adapter.getGroupId(i));
+                expanded++;
             }
         }
-        //get a long[] array from ids
-        long[] expandedIds = new long[ids.size()];
-        int i = 0;
-        for (Long e : ids) {
-            expandedIds[i++] = e.longValue();
+        long[] expandedIds = new long[expanded];
+        for (int i = 0, j = 0; j < expanded; i++) {
+            if (mEntryList.isGroupExpanded(i)) {
+                expandedIds[j++] = adapter.getGroupId(i);
+            }
         }
         mExpandedIds = expandedIds;
     }
@@ -218,53 +328,111 @@ public class MainActivity extends BaseActivity implements OptionEntryDialogListe
      * Restore list state
      */
     private void restoreListState() {
-        EntryListAdapter adapter = (EntryListAdapter) (mEntryList.getExpandableListAdapter());
-        long id;
+        final EntryListAdapter adapter = (EntryListAdapter) (mEntryList.getExpandableListAdapter());
         if (mExpandedIds != null && adapter != null) {
+            //the expanded days might be older than the first page
+            long oldest = Long.MAX_VALUE;
             for (long l : mExpandedIds) {
-                for (int i = 0; i < adapter.getGroupCount(); i++) {
-                    id = adapter.getGroupId(i);
-                    if (l == id) {
-                        mEntryList.expandGroup(i);
-                        break;
+                oldest = Math.min(oldest, l);
+            }
+
+            adapter.loadUntil(oldest, new Runnable() {
+                @Override
+                public void run() {
+                    if (mEntryList.getExpandableListAdapter() != adapter || mExpandedIds == null) {
+                        return;
+                    }
+
+                    for (long l : mExpandedIds) {
+                        int position = adapter.getGroupPosition(l);
+                        if (position != -1) {
+                            mEntryList.expandGroup(position);
+                        }
                     }
                 }
-            }
+            });
         }
     }
 
 
     /**
-     * Takes results from: camera intent (100), and update view
+     * Positive input for the dialog for creating a new Entry
      *
-     * @param requestCode
-     * @param resultCode
-     * @param data
+     * @param message the entry message
      */
     @Override
-    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
-        super.onActivityResult(requestCode, resultCode, data);
+    public void onDialogPositiveClick(String message) {
+        super.onDialogPositiveClick(message);
+        //expand the day of the new entry as soon as it's in the list
+        mExpandFirstDay = !message.trim().equals("");
+    }
+
+    @Override
+    public void onDayAdded(int dayId, String filename, long created, int dayKey) {
+        if (mShowingNoEntries) {
+            //the first day, the list has to be created
+            showEntries();
+            return;
+        }
+
+        EntryListAdapter adapter = getEntryAdapter();
+        if (adapter != null) {
+            adapter.addDay(dayId, filename, created, dayKey);
+        }
+    }
 
-        if (requestCode == CAPTURE_IMAGE_ACTIVITY_REQUEST_CODE) {
-            if (resultCode == RESULT_OK) {
-                //If everything ok, update view
-                this.showEntries();
+    @Override
+    public void onDayDeleted(int dayId) {
+        EntryListAdapter adapter = getEntryAdapter();
+        if (adapter != null) {
+            adapter.removeDay(dayId);
+            if (adapter.getGroupCount() == 0 && !adapter.hasMore()) {
+                showNoEntries();
             }
         }
     }
 
-    /**
-     * Positive input for the dialog for creating a new Entry
-     *
-     * @param message the entry message
-     */
     @Override
-    public void onDialogPositiveClick(String message) {
-        super.onDialogPositiveClick(message);
-        //refresh screen and expand the last day on the list
-        showEntries();
-        if (!message.equals("")) {
-            mEntryList.expandGroup(0);
+    public void onPhotoChanged(int dayId, String filename) {
+        EntryListAdapter adapter = getEntryAdapter();
+        if (adapter != null) {
+            adapter.setDayFilename(dayId, filename);
+        }
+    }
+
+    @Override
+    public void onEntryAdded(int dayId, int entryId, String message, int mood, long created) {
+        EntryListAdapter adapter = getEntryAdapter();
+        if (adapter != null) {
+            int position = adapter.addEntry(dayId, entryId, message, mood, created);
+            if (mExpandFirstDay && position != -1) {
+                mExpandFirstDay = false;
+                mEntryList.expandGroup(position);
+            }
+        }
+    }
+
+    @Override
+    public void onEntryDeleted(int dayId, int entryId) {
+        EntryListAdapter adapter = getEntryAdapter();
+        if (adapter != null) {
+            adapter.removeEntry(dayId, entryId);
+        }
+    }
+
+    @Override
+    public void onMoodChanged(int dayId, int entryId, int mood) {
+        EntryListAdapter adapter = getEntryAdapter();
+        if (adapter != null) {
+            adapter.setEntryMood(dayId, entryId, mood);
+        }
+    }
+
+    @Override
+    public void onMessageChanged(int dayId, int entryId, String message) {
+        EntryListAdapter adapter = getEntryAdapter();
+        if (adapter != null) {
+            adapter.setEntryMessage(dayId, entryId, message);
         }
     }
 
@@ -9,14 +9,14 @@ import android.widget.AdapterView.OnItemClickListener;
 import android.widget.GridView;
 
 import net.analogyc.wordiary.adapters.MoodsAdapter;
+import net.analogyc.wordiary.models.Mood;
 
 /**
  * Shows the list of moods for return to the previous activity
  */
 public class MoodsActivity extends BaseActivity {
-    //the number of the available moods
-    private int mNumberMoods = 10;
-    private String[] mMoods = new String[mNumberMoods];
+    //the codes of the moods that can be chosen
+    private int[] mMoods = new int[Mood.COUNT];
     private GridView mGridView;
 
     @Override
@@ -24,9 +24,9 @@ public class MoodsActivity extends BaseActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_mood);
 
-        //fill the array that contains the name of the mood
-        for (int i = 1; i <= mNumberMoods; i++) {
-            mMoods[i - 1] = "mood" + i;
+        //fill the array that contains the codes of the moods
+        for (int i = 1; i <= Mood.COUNT; i++) {
+            mMoods[i - 1] = i;
         }
 
         //get and set the gridview that will show the moods on the screen
@@ -0,0 +1,217 @@
+package net.analogyc.wordiary;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.view.KeyEvent;
+import android.view.View;
+import android.view.inputmethod.EditorInfo;
+import android.widget.AbsListView;
+import android.widget.AdapterView;
+import android.widget.EditText;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import net.analogyc.wordiary.adapters.SearchResultsAdapter;
+import net.analogyc.wordiary.database.AsyncDBAdapter;
+import net.analogyc.wordiary.database.DBAdapter;
+import net.analogyc.wordiary.database.QueryCancellation;
+import net.analogyc.wordiary.models.SearchResults;
+
+/**
+ * Searches the entries while the user types
+ * The search starts when the typing pauses, a new search cancels the previous one even if it's already running;
+ * the first page is small so it's shown quickly, the next one is read right after and the others while scrolling
+ */
+public class SearchActivity extends BaseActivity {
+
+    //how long the typing must pause before searching, in milliseconds
+    private static final int SEARCH_DELAY = 250;
+    private static final int FIRST_PAGE_SIZE = 15;
+    private static final int PAGE_SIZE = 50;
+    //how many rows before the end of the list the next page is requested
+    private static final int PRELOAD_ROWS = 10;
+
+    private final Handler mHandler = new Handler();
+
+    private EditText mSearchText;
+    private ListView mResultList;
+    private TextView mNoResults;
+
+    private SearchResultsAdapter mAdapter;
+    private String mQuery = "";
+    //cancels every page of the current search
+    private QueryCancellation mCancellation;
+    //tells apart the reads of different searches, even for the same text
+    private int mSearchNumber;
+    private boolean mLoading;
+
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            startSearch(mSearchText.getText().toString());
+        }
+    };
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_search);
+
+        mSearchText = (EditText) findViewById(R.id.searchText);
+        mResultList = (ListView) findViewById(R.id.searchResults);
+        mNoResults = (TextView) findViewById(R.id.searchNoResults);
+
+        mSearchText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                //wait for the user to stop typing
+                mHandler.removeCallbacks(mSearchRunnable);
+                mHandler.postDelayed(mSearchRunnable, SEARCH_DELAY);
+            }
+        });
+
+        mSearchText.setOnEditorActionListener(new TextView.OnEditorActionListener() {
+            @Override
+            public boolean onEditorAction(TextView v, int actionId, KeyEvent event) {
+                if (actionId == EditorInfo.IME_ACTION_SEARCH) {
+                    mHandler.removeCallbacks(mSearchRunnable);
+                    startSearch(mSearchText.getText().toString());
+                    return true;
+                }
+                return false;
+            }
+        });
+
+        mResultList.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                Intent intent = new Intent(SearchActivity.this, EntryActivity.class);
+                intent.putExtra("entryId", (int) id);
+                startActivity(intent);
+            }
+        });
+
+        //read the next page when the user gets near the end of the list
+        mResultList.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                if (mAdapter != null && !mLoading && mAdapter.hasMore()
+                        && firstVisibleItem + visibleItemCount >= totalItemCount - PRELOAD_ROWS) {
+                    loadPage(mAdapter.getNextOffset());
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void onRestart() {
+        super.onRestart();
+        //the entries might have been modified or deleted in the meantime
+        if (mQuery.length() > 0) {
+            startSearch(mQuery, true);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        mHandler.removeCallbacks(mSearchRunnable);
+        if (mCancellation != null) {
+            mCancellation.cancel();
+        }
+        super.onDestroy();
+    }
+
+    private void startSearch(String query) {
+        startSearch(query.trim(), false);
+    }
+
+    /**
+     * Cancels the running search and starts a new one
+     *
+     * @param query the text to look for
+     * @param force true to search again even if the text didn't change
+     */
+    private void startSearch(String query, boolean force) {
+        if (!force && query.equals(mQuery) && mAdapter != null) {
+            return;
+        }
+
+        if (mCancellation != null) {
+            mCancellation.cancel();
+        }
+        mCancellation = new QueryCancellation();
+        mSearchNumber++;
+        mQuery = query;
+        mLoading = false;
+
+        mAdapter = new SearchResultsAdapter(this);
+        mResultList.setAdapter(mAdapter);
+        mNoResults.setVisibility(View.GONE);
+
+        if (query.length() > 0) {
+            loadPage(0);
+        }
+    }
+
+    /**
+     * Reads a page of the current search in background and appends it to the list
+     *
+     * @param offset the number of ranked matches already read, deleted entries included
+     */
+    private void loadPage(final int offset) {
+        final String query = mQuery;
+        final QueryCancellation cancellation = mCancellation;
+        final SearchResultsAdapter adapter = mAdapter;
+        final int size = offset == 0 ? FIRST_PAGE_SIZE : PAGE_SIZE;
+        mLoading = true;
+
+        mDataBase.read("search:" + mSearchNumber + ":" + offset, new AsyncDBAdapter.Query<SearchResults>() {
+            @Override
+            public SearchResults run(DBAdapter database) {
+                return database.search(query, size, offset, cancellation);
+            }
+        }, new AsyncDBAdapter.Callback<SearchResults>() {
+            @Override
+            public void onResult(SearchResults results) {
+                //a newer search has started in the meantime
+                if (results == null || adapter != mAdapter || cancellation.isCancelled()) {
+                    return;
+                }
+
+                mLoading = false;
+                adapter.addPage(results);
+                mNoResults.setVisibility(adapter.getCount() == 0 ? View.VISIBLE : View.GONE);
+
+                //the first page is on screen, read the next one before the user scrolls to it
+                if (offset == 0 && adapter.hasMore()) {
+                    loadPage(adapter.getNextOffset());
+                }
+            }
+        });
+    }
+
+    /**
+     * The search button shouldn't do anything when already in SearchActivity
+     *
+     * @param view
+     */
+    @Override
+    public void onSearchClicked(View view) {
+        // prevent a new search from appearing
+    }
+}
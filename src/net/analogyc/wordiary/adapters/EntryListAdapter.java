@@ -1,7 +1,6 @@
 package net.analogyc.wordiary.adapters;
 
 import android.content.Context;
-import android.database.Cursor;
 import android.graphics.Typeface;
 import android.view.GestureDetector;
 import android.view.GestureDetector.SimpleOnGestureListener;
@@ -15,15 +14,10 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import net.analogyc.wordiary.R;
+import net.analogyc.wordiary.database.AsyncDBAdapter;
 import net.analogyc.wordiary.database.DBAdapter;
 import net.analogyc.wordiary.models.BitmapWorker;
-import net.analogyc.wordiary.models.DateFormats;
-
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.Locale;
+import net.analogyc.wordiary.models.EntryListSnapshot;
 
 /**
  * Adapter to show each day as a parent and each entry as a child of a day
@@ -64,68 +58,202 @@ public class EntryListAdapter extends BaseExpandableListAdapter {
     }
 
     private final Context mContext;
-    private ArrayList<String[]> mDays = new ArrayList<String[]>();
+    private EntryListSnapshot mSnapshot;
     private BitmapWorker mBitmapWorker;
+    private AsyncDBAdapter mDataBase;
+    // the page being read, so scrolling doesn't ask for it again on every frame; -1 if none
+    private int mLoadingPageKey = -1;
     private int mChildTextSize;
     private Typeface mChildTypeface;
 
-    public EntryListAdapter(Context context, BitmapWorker bitmapWorker) {
+    /**
+     * Creates an empty adapter, call loadMore() to read the first page of days
+     *
+     * @param context      the activity context
+     * @param bitmapWorker a bitmapWorker to manage image loading
+     * @param dataBase     the activity's asynchronous database
+     */
+    public EntryListAdapter(Context context, BitmapWorker bitmapWorker, AsyncDBAdapter dataBase) {
         mContext = context;
         mBitmapWorker = bitmapWorker;
+        mDataBase = dataBase;
 
         //these explicit assignments make clear how setView(...) works with these variables
         mChildTypeface = null;
         mChildTextSize = 0;
 
-        DBAdapter database = new DBAdapter(context);
-        Cursor day = database.getAllDays();
-        String[] info;
-        while (day.moveToNext()) {
-            info = new String[3];
-            info[0] = day.getString(0);        //id
-            info[1] = day.getString(1);        //filename
-            info[2] = day.getString(2);        //data
-            mDays.add(info);
+        //days are appended a page at a time while scrolling
+        mSnapshot = new EntryListSnapshot(EntryListSnapshot.DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * Whether there are older days that haven't been loaded yet
+     *
+     * @return True if loadMore() could add days
+     */
+    public boolean hasMore() {
+        return mSnapshot.hasMore();
+    }
+
+    /**
+     * Reads the next page of older days in background and appends it to the list
+     *
+     * @param onLoaded Run on the UI thread when the page is in the list or couldn't be read, can be null
+     */
+    public void loadMore(final Runnable onLoaded) {
+        if (!mSnapshot.hasMore()) {
+            if (onLoaded != null) {
+                onLoaded.run();
+            }
+            return;
+        }
+
+        final int key = mSnapshot.getNextPageKey();
+        final int pageSize = mSnapshot.getPageSize();
+        if (onLoaded == null && key == mLoadingPageKey) {
+            return;
+        }
+        mLoadingPageKey = key;
+
+        mDataBase.read("days_page:" + key + ":" + pageSize, new AsyncDBAdapter.Query<EntryListSnapshot.Page>() {
+            @Override
+            public EntryListSnapshot.Page run(DBAdapter database) {
+                return EntryListSnapshot.readPage(database, key, pageSize);
+            }
+        }, new AsyncDBAdapter.ErrorCallback<EntryListSnapshot.Page>() {
+            @Override
+            public void onResult(EntryListSnapshot.Page page) {
+                if (mLoadingPageKey == key) {
+                    mLoadingPageKey = -1;
+                }
+                //the same page might be delivered twice if requested twice, it's added only once
+                if (mSnapshot.append(page)) {
+                    notifyDataSetChanged();
+                }
+                if (onLoaded != null) {
+                    onLoaded.run();
+                }
+            }
+
+            @Override
+            public void onError(RuntimeException error) {
+                //the next scroll asks for the page again
+                if (mLoadingPageKey == key) {
+                    mLoadingPageKey = -1;
+                }
+                if (onLoaded != null) {
+                    onLoaded.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Loads pages until the given day is in the list, or there's nothing else to load
+     *
+     * @param dayId    The id of the day that must be reachable
+     * @param onLoaded Run on the UI thread when done, can be null
+     */
+    public void loadUntil(final long dayId, final Runnable onLoaded) {
+        int count = mSnapshot.getDayCount();
+        if (!mSnapshot.hasMore() || (count > 0 && mSnapshot.getDayId(count - 1) <= dayId)) {
+            if (onLoaded != null) {
+                onLoaded.run();
+            }
+            return;
+        }
+
+        final int loaded = count;
+        loadMore(new Runnable() {
+            @Override
+            public void run() {
+                //the page couldn't be read, don't ask for it forever
+                if (mSnapshot.getDayCount() == loaded) {
+                    if (onLoaded != null) {
+                        onLoaded.run();
+                    }
+                    return;
+                }
+                loadUntil(dayId, onLoaded);
+            }
+        });
+    }
+
+
+    /**
+     * Adds a day created after the list was loaded
+     *
+     * @return The position of the day, or -1 if it isn't in the loaded part of the list
+     */
+    public int addDay(int dayId, String filename, long created, int dayKey) {
+        int count = mSnapshot.getDayCount();
+        int position = mSnapshot.addDay(dayId, filename, created, dayKey);
+        if (mSnapshot.getDayCount() != count) {
+            notifyDataSetChanged();
+        }
+        return position;
+    }
+
+    public void removeDay(int dayId) {
+        if (mSnapshot.removeDay(dayId)) {
+            notifyDataSetChanged();
+        }
+    }
+
+    public void setDayFilename(int dayId, String filename) {
+        if (mSnapshot.setDayFilename(dayId, filename)) {
+            notifyDataSetChanged();
+        }
+    }
+
+    /**
+     * Adds an entry on top of its day
+     *
+     * @return The position of the day, or -1 if the day isn't loaded
+     */
+    public int addEntry(int dayId, int entryId, String message, int mood, long created) {
+        if (mSnapshot.addEntry(dayId, entryId, message, mood, created)) {
+            notifyDataSetChanged();
+        }
+        return mSnapshot.indexOfDay(dayId);
+    }
+
+    public void removeEntry(int dayId, int entryId) {
+        if (mSnapshot.removeEntry(dayId, entryId)) {
+            notifyDataSetChanged();
+        }
+    }
+
+    public void setEntryMood(int dayId, int entryId, int mood) {
+        //the mood isn't shown in the list, no need to redraw it
+        mSnapshot.setEntryMood(dayId, entryId, mood);
+    }
+
+    public void setEntryMessage(int dayId, int entryId, String message) {
+        if (mSnapshot.setEntryMessage(dayId, entryId, message)) {
+            notifyDataSetChanged();
         }
-        database.close();
-        day.close();
     }
 
 
     @Override
     public Object getChild(int groupPosition, int childPosition) {
-        DBAdapter database = new DBAdapter(mContext);
-
-        //get all entries associated to the day given
-        Cursor entries = database.getEntriesByDay((int) getGroupId(groupPosition));
-        String[] info = new String[4];
-        entries.moveToFirst();
-        if (entries.moveToPosition(childPosition)) {
-            info[0] = entries.getString(0);        //id
-            info[1] = entries.getString(2);        //message
-            info[2] = entries.getString(3);        //mood
-            info[3] = entries.getString(4);        //data
-        }
-        database.close();
-        entries.close();
-        return info;
+        return mSnapshot.getEntryMessage(groupPosition, childPosition);
     }
 
     @Override
     public long getChildId(int groupPosition, int childPosition) {
-        String[] child = (String[]) getChild(groupPosition, childPosition);
-        return Long.parseLong(child[0]);
+        return mSnapshot.getEntryId(groupPosition, childPosition);
     }
 
     @Override
     public View getChildView(int groupPosition, int childPosition, boolean isLastChild, View view, ViewGroup parent) {
-        String[] info = (String[]) getChild(groupPosition, childPosition);
         if (view == null) {
             LayoutInflater infalInflater = (LayoutInflater) mContext.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
             view = infalInflater.inflate(R.layout.entry_style, null);
         }
         TextView message = ((TextView) view.findViewById(R.id.entryMessage));
-        message.setText(info[1]);
+        message.setText(mSnapshot.getEntryMessage(groupPosition, childPosition));
 
         //set a custom look for message if asked
         if (mChildTextSize != 0) {
@@ -135,7 +263,7 @@ public class EntryListAdapter extends BaseExpandableListAdapter {
             message.setTypeface(mChildTypeface);
         }
 
-        final GestureDetector gestureDetector = new GestureDetector(mContext, new EntryGDetector(Integer.parseInt(info[0])));
+        final GestureDetector gestureDetector = new GestureDetector(mContext, new EntryGDetector(mSnapshot.getEntryId(groupPosition, childPosition)));
         view.setOnTouchListener(new OnTouchListener() {
             @Override
             public boolean onTouch(View v, MotionEvent event) {
@@ -155,34 +283,42 @@ public class EntryListAdapter extends BaseExpandableListAdapter {
 
     @Override
     public int getChildrenCount(int groupPosition) {
-        DBAdapter database = new DBAdapter(mContext);
-        Cursor entries = database.getEntriesByDay((int) getGroupId(groupPosition));
-        int size = entries.getCount();
-        database.close();
-        entries.close();
-        return size;
+        return mSnapshot.getEntryCount(groupPosition);
+    }
 
+    /**
+     * Returns the position of a day, the opposite of getGroupId()
+     *
+     * @param id the day id
+     * @return the group position, or -1 if the day isn't loaded
+     */
+    public int getGroupPosition(long id) {
+        if (id < Integer.MIN_VALUE || id > Integer.MAX_VALUE) {
+            return -1;
+        }
+        return mSnapshot.indexOfDay((int) id);
     }
 
     @Override
     public Object getGroup(int groupPosition) {
-        return mDays.get(groupPosition);
+        return mSnapshot.getDayLabel(groupPosition);
     }
 
     @Override
     public int getGroupCount() {
-        return mDays.size();
+        return mSnapshot.getDayCount();
     }
 
     @Override
     public long getGroupId(int groupPosition) {
-        return Long.parseLong(mDays.get(groupPosition)[0]);
+        return mSnapshot.getDayId(groupPosition);
     }
 
     @Override
     public View getGroupView(int groupPosition, boolean isLastChild, View view, ViewGroup parent) {
-        String[] info = (String[]) getGroup(groupPosition);
-        Boolean hasImage = true;
+        int dayId = mSnapshot.getDayId(groupPosition);
+        String filename = mSnapshot.getDayFilename(groupPosition);
+        boolean hasImage = true;
         if (view == null) {
             LayoutInflater inf = (LayoutInflater) mContext.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
             view = inf.inflate(R.layout.day_style, null);
@@ -193,17 +329,17 @@ public class EntryListAdapter extends BaseExpandableListAdapter {
 
         int entries = getChildrenCount(groupPosition);
         TextView v = (TextView) view.findViewById(R.id.dayCount);
-        v.setText("" + entries);
+        v.setText(Integer.toString(entries));
 
         String path = null;
-        if (!info[1].equals("")) {
-            path = info[1];
+        if (!filename.equals("")) {
+            path = filename;
         } else {
             hasImage = false;
         }
 
         mBitmapWorker.createTask(imageView, path)
-                .setShowDefault(Integer.parseInt(info[0]))
+                .setShowDefault(dayId)
                 .setTargetHeight(128)
                 .setTargetWidth(128)
                 .setCenterCrop(true)
@@ -211,17 +347,11 @@ public class EntryListAdapter extends BaseExpandableListAdapter {
                 .setRoundedCorner(15)
                 .execute();
 
-        SimpleDateFormat format_in = new SimpleDateFormat(DateFormats.DATABASE, Locale.getDefault());
-        SimpleDateFormat format_out = new SimpleDateFormat(DateFormats.IMAGE, Locale.getDefault());
-        try {
-            Date date = format_in.parse(info[2]);
-            ((TextView) view.findViewById(R.id.dayDate)).setText(format_out.format(date));
-        } catch (ParseException e) {
-            //won't happen if we use only dataBaseHelper.addEntry(...)
-        }
+        //the label has been formatted when the day was loaded
+        ((TextView) view.findViewById(R.id.dayDate)).setText(mSnapshot.getDayLabel(groupPosition));
 
 
-        final GestureDetector gestureDetector = new GestureDetector(mContext, new DayGDetector(Integer.parseInt(info[0]), hasImage));
+        final GestureDetector gestureDetector = new GestureDetector(mContext, new DayGDetector(dayId, hasImage));
 
         imageView.setOnTouchListener(new OnTouchListener() {
             @Override
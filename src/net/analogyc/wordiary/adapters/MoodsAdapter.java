@@ -8,50 +8,46 @@ import android.widget.BaseAdapter;
 import android.widget.ImageView;
 
 import net.analogyc.wordiary.R;
+import net.analogyc.wordiary.models.MoodRegistry;
 
 /**
  * Adapter to show the moods
  */
 public class MoodsAdapter extends BaseAdapter {
-    private Context mContext;
-    private final String[] mMoods;
+    private final LayoutInflater mInflater;
+    private final MoodRegistry mMoodRegistry;
+    private final int[] mMoods;
 
     /**
      * Create a new mood adapter
      *
      * @param context the activity context
-     * @param moods   the list of moods
+     * @param moods   the codes of the moods
      */
-    public MoodsAdapter(Context context, String[] moods) {
+    public MoodsAdapter(Context context, int[] moods) {
         super();
-        mContext = context;
+        mInflater = LayoutInflater.from(context);
+        mMoodRegistry = MoodRegistry.getInstance(context);
         mMoods = moods;
     }
 
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
-
-        LayoutInflater inflater = (LayoutInflater) mContext.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-
-        View gridView;
-
-        if (convertView == null) {
-
-            gridView = new View(mContext);
-
-            // get layout from mobile.xml
-            gridView = inflater.inflate(R.layout.moods_style, null);
-
-            // set image based on selected text
-            ImageView imageView = (ImageView) gridView.findViewById(R.id.grid_item_image);
-            //get the identifier of the image
-            int identifier = mContext.getResources().getIdentifier(mMoods[position], "drawable", R.class.getPackage().getName());
-            imageView.setImageResource(identifier);
-
+        View gridView = convertView;
+        ImageView imageView;
+
+        if (gridView == null) {
+            gridView = mInflater.inflate(R.layout.moods_style, parent, false);
+            //keep the image in the tag, so a recycled view needs no lookup
+            imageView = (ImageView) gridView.findViewById(R.id.grid_item_image);
+            gridView.setTag(imageView);
         } else {
-            gridView = (View) convertView;
+            imageView = (ImageView) gridView.getTag();
         }
 
+        // set image based on the mood, a recycled view might show another one
+        mMoodRegistry.bind(imageView, mMoods[position]);
+
         return gridView;
     }
 
@@ -70,4 +66,4 @@ public class MoodsAdapter extends BaseAdapter {
         return position;
     }
 
-}
\ No newline at end of file
+}
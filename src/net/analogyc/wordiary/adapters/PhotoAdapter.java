@@ -13,14 +13,35 @@ import net.analogyc.wordiary.R;
 import net.analogyc.wordiary.database.DBAdapter;
 import net.analogyc.wordiary.models.BitmapWorker;
 
-import java.util.ArrayList;
-
 /**
  * Adapter to show each entry in the gallery
  */
 public class PhotoAdapter extends BaseAdapter {
-    private Context mContext;
-    private ArrayList<String[]> mPhotos = new ArrayList<String[]>();
+
+    /**
+     * The photos to show, with their day ids
+     */
+    public static class Photos {
+
+        private final int[] mDayIds;
+        private final String[] mPaths;
+
+        private Photos(int size) {
+            mDayIds = new int[size];
+            mPaths = new String[size];
+        }
+
+        public int size() {
+            return mDayIds.length;
+        }
+
+        public boolean isEmpty() {
+            return mDayIds.length == 0;
+        }
+    }
+
+    private LayoutInflater mInflater;
+    private Photos mPhotos;
     private BitmapWorker mBitmapWorker;
 
     /**
@@ -28,44 +49,59 @@ public class PhotoAdapter extends BaseAdapter {
      *
      * @param context      the activity context
      * @param bitmapWorker a bitmapWorker to manage image loading
+     * @param photos       the photos, as returned by loadPhotos()
      */
-    public PhotoAdapter(Context context, BitmapWorker bitmapWorker) {
-        mContext = context;
+    public PhotoAdapter(Context context, BitmapWorker bitmapWorker, Photos photos) {
+        mInflater = LayoutInflater.from(context);
         mBitmapWorker = bitmapWorker;
+        mPhotos = photos;
+    }
 
-        DBAdapter database = new DBAdapter(context);
+    /**
+     * Reads the photos to display, should be run off the UI thread
+     *
+     * @param database an open DBAdapter, it won't be closed
+     * @return the id and the path of every photo
+     */
+    public static Photos loadPhotos(DBAdapter database) {
         Cursor photos_db = database.getAllPhotos();
-        String[] info;
+        Photos photos = new Photos(photos_db.getCount());
 
-        while (photos_db.moveToNext()) {
-            info = new String[2];
-            info[0] = photos_db.getString(0);
-            info[1] = photos_db.getString(1);
-            mPhotos.add(info);
+        for (int i = 0; photos_db.moveToNext(); i++) {
+            photos.mDayIds[i] = photos_db.getInt(0);
+            photos.mPaths[i] = photos_db.getString(1);
         }
 
-        database.close();
         photos_db.close();
+        return photos;
     }
 
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
-        LayoutInflater inflater = (LayoutInflater) mContext.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-        View gridView = inflater.inflate(R.layout.image_style, null);
+        View gridView = convertView;
+        final ImageView imageView;
+
+        // a recycled cell keeps its image view, and its pending task is cancelled by the new one
+        if (gridView == null) {
+            gridView = mInflater.inflate(R.layout.image_style, null);
+            imageView = (ImageView) gridView.findViewById(R.id.grid_item_gallery);
+            gridView.setTag(imageView);
+
+            imageView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+                public boolean onPreDraw() {
+                    imageView.setMaxHeight(imageView.getMeasuredWidth());
+                    return true;
+                }
+            });
+        } else {
+            imageView = (ImageView) gridView.getTag();
+        }
 
         // set image based on selected text
-        final ImageView imageView = (ImageView) gridView.findViewById(R.id.grid_item_gallery);
-        String photoPath = mPhotos.get(position)[1];
-        int dayId = Integer.parseInt(mPhotos.get(position)[0]);
+        String photoPath = mPhotos.mPaths[position];
+        int dayId = mPhotos.mDayIds[position];
         int size = 192;
 
-        imageView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
-            public boolean onPreDraw() {
-                imageView.setMaxHeight(imageView.getMeasuredWidth());
-                return true;
-            }
-        });
-
         mBitmapWorker.createTask(imageView, photoPath)
                 .setShowDefault(dayId)
                 .setTargetHeight(size)
@@ -73,12 +109,22 @@ public class PhotoAdapter extends BaseAdapter {
                 .setCenterCrop(true)
                 .setHighQuality(true)
                 .setRoundedCorner(15)
-                .setPrefix("gallery_")
                 .execute();
 
         return gridView;
     }
 
+    /**
+     * Releases the image of a cell that has been scrolled out of sight or thrown away
+     *
+     * @param gridView the cell, as returned by getView()
+     */
+    public void recycle(View gridView) {
+        if (gridView.getTag() instanceof ImageView) {
+            mBitmapWorker.clearView((ImageView) gridView.getTag());
+        }
+    }
+
     @Override
     public int getCount() {
         return mPhotos.size();
@@ -86,12 +132,12 @@ public class PhotoAdapter extends BaseAdapter {
 
     @Override
     public Object getItem(int position) {
-        return mPhotos.get(position);
+        return mPhotos.mPaths[position];
     }
 
     @Override
     public long getItemId(int position) {
-        return Long.parseLong(mPhotos.get(position)[0]);
+        return mPhotos.mDayIds[position];
     }
 
 }
\ No newline at end of file
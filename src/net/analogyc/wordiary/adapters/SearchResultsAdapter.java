@@ -0,0 +1,144 @@
+package net.analogyc.wordiary.adapters;
+
+import android.content.Context;
+import android.graphics.Typeface;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.style.BackgroundColorSpan;
+import android.text.style.StyleSpan;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import net.analogyc.wordiary.R;
+import net.analogyc.wordiary.models.DateCodec;
+import net.analogyc.wordiary.models.DateFormats;
+import net.analogyc.wordiary.models.SearchResults;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Adapter to show the entries found by a search, the pages are appended as they arrive
+ */
+public class SearchResultsAdapter extends BaseAdapter {
+
+    private static final int HIGHLIGHT_COLOR = 0x55231f74;
+
+    private final LayoutInflater mInflater;
+    private final ArrayList<SearchResults> mPages = new ArrayList<SearchResults>();
+    private int mCount;
+    private int mNextOffset;
+    private boolean mHasMore = true;
+
+    /**
+     * Creates an empty adapter, fill it with addPage()
+     *
+     * @param context the activity context
+     */
+    public SearchResultsAdapter(Context context) {
+        mInflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+    }
+
+    /**
+     * Appends the next page of results
+     *
+     * @param page the page, read with getNextOffset() as offset
+     */
+    public void addPage(SearchResults page) {
+        mPages.add(page);
+        mCount += page.getCount();
+        mNextOffset = page.getNextOffset();
+        mHasMore = page.hasMore();
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Returns true if there are results that haven't been read yet
+     */
+    public boolean hasMore() {
+        return mHasMore;
+    }
+
+    /**
+     * Returns the offset of the next page among the ranked matches, not the number of rows shown
+     */
+    public int getNextOffset() {
+        return mNextOffset;
+    }
+
+    /**
+     * Returns the number of entries that match, including the ones not read yet
+     */
+    public int getTotal() {
+        return mPages.isEmpty() ? 0 : mPages.get(0).getTotal();
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public Object getItem(int position) {
+        int index = position;
+        for (SearchResults page : mPages) {
+            if (index < page.getCount()) {
+                return page.getSnippet(index);
+            }
+            index -= page.getCount();
+        }
+        return null;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        int index = position;
+        for (SearchResults page : mPages) {
+            if (index < page.getCount()) {
+                return page.getEntryId(index);
+            }
+            index -= page.getCount();
+        }
+        return -1;
+    }
+
+    @Override
+    public View getView(int position, View view, ViewGroup parent) {
+        if (view == null) {
+            view = mInflater.inflate(R.layout.search_result_style, parent, false);
+        }
+
+        //find the page of this row, there are only a few
+        SearchResults page = null;
+        int index = position;
+        for (SearchResults p : mPages) {
+            if (index < p.getCount()) {
+                page = p;
+                break;
+            }
+            index -= p.getCount();
+        }
+        if (page == null) {
+            return view;
+        }
+
+        TextView date = (TextView) view.findViewById(R.id.searchResultDate);
+        date.setText(DateCodec.format(DateFormats.ENTRY, Locale.ITALY, page.getCreated(index)));
+
+        //highlight the matched words
+        SpannableString snippet = new SpannableString(page.getSnippet(index));
+        int[] highlights = page.getHighlights(index);
+        for (int i = 0; i < highlights.length; i += 2) {
+            snippet.setSpan(new StyleSpan(Typeface.BOLD), highlights[i], highlights[i + 1],
+                    Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            snippet.setSpan(new BackgroundColorSpan(HIGHLIGHT_COLOR), highlights[i], highlights[i + 1],
+                    Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+        ((TextView) view.findViewById(R.id.searchResultSnippet)).setText(snippet);
+
+        return view;
+    }
+}
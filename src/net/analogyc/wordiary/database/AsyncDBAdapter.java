@@ -0,0 +1,279 @@
+package net.analogyc.wordiary.database;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs DBAdapter work on a background thread and delivers the results on the UI thread
+ * There's a single worker, so the operations run in the same order they are submitted: a read sent after a write
+ * always sees it. Every activity should own an instance and call cancelAll() when it's destroyed.
+ */
+public class AsyncDBAdapter {
+
+    /**
+     * The work to do with the database, it's run on the worker thread
+     *
+     * @param <T> The type of the result
+     */
+    public interface Query<T> {
+
+        /**
+         * Runs the operation
+         *
+         * @param database The worker's own DBAdapter, don't close it
+         * @return The result to deliver, it shouldn't be a Cursor
+         */
+        public T run(DBAdapter database);
+    }
+
+    /**
+     * Receives the result on the UI thread
+     *
+     * @param <T> The type of the result
+     */
+    public interface Callback<T> {
+
+        /**
+         * Called on the UI thread, unless the owner was cancelled in the meantime
+         *
+         * @param result The result of the query
+         */
+        public void onResult(T result);
+    }
+
+    /**
+     * A callback that also hears about failures, use it when something waits for the result
+     *
+     * @param <T> The type of the result
+     */
+    public interface ErrorCallback<T> extends Callback<T> {
+
+        /**
+         * Called on the UI thread instead of onResult() if the query threw, or if the read was refused because
+         * too many reads were queued
+         *
+         * @param error The reason
+         */
+        public void onError(RuntimeException error);
+    }
+
+    private static final String TAG = "AsyncDBAdapter";
+
+    // reads waiting for the worker, more are refused; writes are always queued
+    private static final int MAX_QUEUED_READS = 128;
+
+    private static ThreadPoolExecutor sExecutor;
+    private static Handler sHandler;
+    private static DBAdapter sWorkerDatabase;
+
+    // reads that are queued or running, so the same read isn't submitted twice
+    private static final HashMap<String, Request<?>> sInFlight = new HashMap<String, Request<?>>();
+    private static int sQueuedReads;
+
+    private final Context mContext;
+    private volatile boolean mCancelled;
+
+    /**
+     * Creates a new adapter for the owner of the context
+     *
+     * @param context The activity context
+     */
+    public AsyncDBAdapter(Context context) {
+        mContext = context.getApplicationContext();
+        init(mContext);
+    }
+
+    private static synchronized void init(final Context context) {
+        if (sExecutor != null) {
+            return;
+        }
+
+        sHandler = new Handler(Looper.getMainLooper());
+        // the queue is unbounded so a write is never dropped nor run on the UI thread, reads are capped in submit()
+        sExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "AsyncDBAdapter");
+                        thread.setPriority(Thread.NORM_PRIORITY - 1);
+                        return thread;
+                    }
+                });
+        sWorkerDatabase = new DBAdapter(context);
+    }
+
+    /**
+     * Runs an operation that modifies the database, it's never coalesced nor skipped
+     *
+     * @param query    The operation
+     * @param callback Receives the result, can be null
+     */
+    public <T> void write(Query<T> query, Callback<T> callback) {
+        submit(null, query, callback);
+    }
+
+    /**
+     * Runs a read, if the same read is already queued the callback is attached to it instead
+     *
+     * @param key      Identifies the read with its parameters, e.g. "entry:12"
+     * @param query    The operation
+     * @param callback Receives the result
+     */
+    public <T> void read(String key, Query<T> query, Callback<T> callback) {
+        submit(key, query, callback);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> void submit(String key, Query<T> query, Callback<T> callback) {
+        if (mCancelled) {
+            return;
+        }
+
+        Request<T> request;
+        synchronized (sInFlight) {
+            if (key == null) {
+                // reads queued before a write must not be shared with reads sent after it
+                sInFlight.clear();
+            } else {
+                Request<?> running = sInFlight.get(key);
+                if (running != null) {
+                    ((Request<T>) running).addListener(this, callback);
+                    return;
+                }
+
+                // the worker is far behind, a read can be asked again later while a write can't
+                if (sQueuedReads >= MAX_QUEUED_READS) {
+                    request = new Request<T>(key, query);
+                    request.addListener(this, callback);
+                    request.deliver(null, new RejectedExecutionException("Too many queued reads"));
+                    return;
+                }
+                sQueuedReads++;
+            }
+
+            request = new Request<T>(key, query);
+            request.addListener(this, callback);
+            if (key != null) {
+                sInFlight.put(key, request);
+            }
+        }
+
+        sExecutor.execute(request);
+    }
+
+    /**
+     * Drops all the pending callbacks of this owner, reads nobody waits for anymore are skipped
+     * Call it when the activity is destroyed, the adapter can't be used afterwards
+     */
+    public void cancelAll() {
+        mCancelled = true;
+    }
+
+    /**
+     * A single operation with the callbacks of everyone waiting for it
+     */
+    private static class Request<T> implements Runnable {
+
+        private final String mKey;
+        private final Query<T> mQuery;
+        private final ArrayList<AsyncDBAdapter> mOwners = new ArrayList<AsyncDBAdapter>(1);
+        private final ArrayList<Callback<T>> mCallbacks = new ArrayList<Callback<T>>(1);
+
+        public Request(String key, Query<T> query) {
+            mKey = key;
+            mQuery = query;
+        }
+
+        public void addListener(AsyncDBAdapter owner, Callback<T> callback) {
+            synchronized (sInFlight) {
+                mOwners.add(owner);
+                mCallbacks.add(callback);
+            }
+        }
+
+        private boolean isWanted() {
+            synchronized (sInFlight) {
+                for (AsyncDBAdapter owner : mOwners) {
+                    if (!owner.mCancelled) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        }
+
+        @Override
+        public void run() {
+            if (mKey != null) {
+                synchronized (sInFlight) {
+                    sQueuedReads--;
+                }
+            }
+
+            // a read whose owners are gone is not worth the I/O
+            if (mKey != null && !isWanted()) {
+                finish();
+                return;
+            }
+
+            T result = null;
+            RuntimeException error = null;
+            try {
+                result = mQuery.run(sWorkerDatabase);
+            } catch (RuntimeException e) {
+                error = e;
+            } finally {
+                finish();
+            }
+
+            deliver(result, error);
+        }
+
+        /**
+         * Gives the result or the error to the callbacks on the UI thread
+         * An error reaches only the ErrorCallbacks, it's logged if nobody hears it
+         */
+        public void deliver(final T result, final RuntimeException error) {
+            sHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    boolean reported = false;
+                    for (int i = 0; i < mOwners.size(); i++) {
+                        Callback<T> callback = mCallbacks.get(i);
+                        if (callback == null || mOwners.get(i).mCancelled) {
+                            continue;
+                        }
+                        if (error == null) {
+                            callback.onResult(result);
+                        } else if (callback instanceof ErrorCallback) {
+                            ((ErrorCallback<T>) callback).onError(error);
+                            reported = true;
+                        }
+                    }
+                    if (error != null && !reported) {
+                        Log.e(TAG, "Query failed", error);
+                    }
+                }
+            });
+        }
+
+        private void finish() {
+            synchronized (sInFlight) {
+                if (mKey != null && sInFlight.get(mKey) == this) {
+                    sInFlight.remove(mKey);
+                }
+            }
+        }
+    }
+}
@@ -1,57 +1,133 @@
 package net.analogyc.wordiary.database;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
-import android.preference.PreferenceManager;
+import android.database.sqlite.SQLiteStatement;
+import android.util.SparseIntArray;
 
-import net.analogyc.wordiary.models.DateFormats;
+import net.analogyc.wordiary.models.DateCodec;
+import net.analogyc.wordiary.models.MoodStats;
+import net.analogyc.wordiary.models.SearchResults;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
 
 
 /**
  * Aggregator for all the database queries
+ * Queries always bind their arguments, so every query shape is compiled once per connection; a DBAdapter keeps its
+ * compiled statements, so it must be used by one thread at a time
  */
 public class DBAdapter {
 
-    private DataBaseHelper mDbHelper;
+    // words shorter than this match only as whole words, a shorter prefix would match most of the diary
+    private static final int MIN_PREFIX_LENGTH = 3;
+    // the newest matches that are ranked, the older ones are counted but not paged
+    private static final int MAX_RANKED = 1000;
+
+    private DataBaseManager mDbManager;
     private SQLiteDatabase mDatabase;
-    private SharedPreferences mPreferences;
+    // compiled statements of this connection, by SQL
+    private final HashMap<String, SQLiteStatement> mStatements = new HashMap<String, SQLiteStatement>();
+
+    // the ranked matches of the last search, so the following pages aren't ranked again
+    private String mSearchMatch;
+    private int[] mSearchIds;
+    private int mSearchTotal;
 
     /**
      * You must call open() on this object to use other methods
      */
     public DBAdapter(Context context) {
-        mDbHelper = new DataBaseHelper(context);
-        mPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+        mDbManager = DataBaseManager.getInstance(context);
     }
 
     /**
-     * Returns an open, writable database, or creates a new instance
+     * Returns the shared writable database, acquiring it from the manager on first use
      */
     private SQLiteDatabase getConnection() {
         if (mDatabase == null) {
-            mDatabase = mDbHelper.getWritableDatabase();
+            mDatabase = mDbManager.openDatabase();
         }
 
         return mDatabase;
     }
 
     /**
-     * Close databaseHelper, any class that use DBAdapter must call this method when it don't use it anymore
+     * Releases the shared connection, any class that use DBAdapter must call this method when it don't use it anymore
      */
     public void close() {
+        //the statements belong to the connection being released
+        for (SQLiteStatement statement : mStatements.values()) {
+            statement.close();
+        }
+        mStatements.clear();
+
         if (mDatabase != null) {
-            mDatabase.close();
+            mDbManager.closeDatabase();
             mDatabase = null;
         }
     }
 
+    /**
+     * Returns the statement compiled for this connection, compiling it on first use
+     * Don't close it, it's closed by close()
+     *
+     * @param sql the statement, with '?' for every argument
+     * @return the compiled statement
+     */
+    private SQLiteStatement statement(String sql) {
+        SQLiteStatement statement = mStatements.get(sql);
+        if (statement == null) {
+            statement = getConnection().compileStatement(sql);
+            mStatements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Runs a statement that takes a single id as argument
+     *
+     * @param sql the statement, with a single '?'
+     * @param id  the id to bind
+     */
+    private void executeById(String sql, int id) {
+        SQLiteStatement statement = statement(sql);
+        statement.bindLong(1, id);
+        statement.execute();
+    }
+
+    /**
+     * Runs a query that returns a single number
+     *
+     * @param sql the query, with a single '?'
+     * @param arg the argument to bind
+     * @return the value of the first column of the first row
+     */
+    private long queryForLong(String sql, long arg) {
+        SQLiteStatement statement = statement(sql);
+        statement.bindLong(1, arg);
+        return statement.simpleQueryForLong();
+    }
+
+    /**
+     * Runs a query that returns a single number
+     *
+     * @param sql    the query, with two '?'
+     * @param first  the first argument to bind
+     * @param second the second argument to bind
+     * @return the value of the first column of the first row
+     */
+    private long queryForLong(String sql, long first, long second) {
+        SQLiteStatement statement = statement(sql);
+        statement.bindLong(1, first);
+        statement.bindLong(2, second);
+        return statement.simpleQueryForLong();
+    }
+
 
     /**** ENTRIES OPERATIONS ****/
 
@@ -59,11 +135,13 @@ public class DBAdapter {
      * Get the entry with the given id
      *
      * @param id entry's id
-     * @return a Cursor that contains the selected entry
+     * @return a Cursor with the columns _id, day_id, message, mood_code, created
      */
     public Cursor getEntryById(int id) {
-        String query = "SELECT * FROM " + Entry.TABLE_NAME + " WHERE " + Entry._ID + " = " + id + " LIMIT 1";
-        return getConnection().rawQuery(query, null);
+        String query = "SELECT " + Entry._ID + ", " + Entry.COLUMN_NAME_DAY_ID + ", " + Entry.COLUMN_NAME_MESSAGE + ", " +
+                Entry.COLUMN_NAME_MOOD_CODE + ", " + Entry.COLUMN_NAME_CREATED +
+                " FROM " + Entry.TABLE_NAME + " WHERE " + Entry._ID + " = ? LIMIT 1";
+        return getConnection().rawQuery(query, new String[]{Integer.toString(id)});
     }
 
     /**
@@ -73,95 +151,336 @@ public class DBAdapter {
      * @return a Cursor that contains the entries ordered by date
      */
     public Cursor getEntriesByDay(int id) {
-        String query = "SELECT * FROM " + Entry.TABLE_NAME +
-                " WHERE " + Entry.COLUMN_NAME_DAY_ID + " = " + id +
+        String query = "SELECT " + Entry._ID + ", " + Entry.COLUMN_NAME_DAY_ID + ", " + Entry.COLUMN_NAME_MESSAGE + ", " +
+                Entry.COLUMN_NAME_MOOD_CODE + ", " + Entry.COLUMN_NAME_CREATED +
+                " FROM " + Entry.TABLE_NAME +
+                " WHERE " + Entry.COLUMN_NAME_DAY_ID + " = ?" +
                 " ORDER BY " + Entry._ID + " DESC";
-        return getConnection().rawQuery(query, null);
+        return getConnection().rawQuery(query, new String[]{Integer.toString(id)});
     }
 
     /**
-     * Add a new entry
+     * Count the entries associated with the given day id, using only the index on day_id
+     *
+     * @param id day's id
+     * @return the number of entries
+     */
+    public int countEntriesByDay(int id) {
+        String query = "SELECT COUNT(*) FROM " + Entry.TABLE_NAME +
+                " WHERE " + Entry.COLUMN_NAME_DAY_ID + " = ?";
+        return (int) queryForLong(query, id);
+    }
+
+    /**
+     * Get the entries that belong to a range of days, grouped by day with the same order of getAllDays()
+     *
+     * @param newestDayId the highest day id to include
+     * @param oldestDayId the lowest day id to include
+     * @return a Cursor with the columns _id, day_id, message, mood_code, created
+     */
+    public Cursor getEntriesGroupedByDay(int newestDayId, int oldestDayId) {
+        String query = "SELECT e." + Entry._ID + ", e." + Entry.COLUMN_NAME_DAY_ID + ", e." + Entry.COLUMN_NAME_MESSAGE +
+                ", e." + Entry.COLUMN_NAME_MOOD_CODE + ", e." + Entry.COLUMN_NAME_CREATED +
+                " FROM " + Entry.TABLE_NAME + " e" +
+                " INNER JOIN " + Day.TABLE_NAME + " d ON d." + Day._ID + " = e." + Entry.COLUMN_NAME_DAY_ID +
+                " WHERE e." + Entry.COLUMN_NAME_DAY_ID + " <= ? AND e." + Entry.COLUMN_NAME_DAY_ID + " >= ?" +
+                " ORDER BY e." + Entry.COLUMN_NAME_DAY_ID + " DESC, e." + Entry._ID + " DESC";
+        return getConnection().rawQuery(query, new String[]{Integer.toString(newestDayId), Integer.toString(oldestDayId)});
+    }
+
+    /**
+     * Add a new entry, together with its day if it's the first of the day, in a single transaction
      *
      * @param text the message of the entry
-     * @param mood the correspondent mood
+     * @param mood the mood code, see Mood
      */
     public void addEntry(String text, int mood) {
         //create the current timestamp
-        Date now = new Date(System.currentTimeMillis());
-        SimpleDateFormat sdf = new SimpleDateFormat(DateFormats.DATABASE, Locale.getDefault());
+        long now = System.currentTimeMillis();
+        int dayKey = DateCodec.getDayKey(now);
 
-        //if there's a the correspond day for this entry, we'll create a new day
-        String query = "SELECT * " +
-                "FROM " + Day.TABLE_NAME +
-                " WHERE " + Day.COLUMN_NAME_CREATED + " LIKE '" + sdf.format(now).substring(0, 8) + "%'" +
-                " LIMIT 1";
-        Cursor c = getConnection().rawQuery(query, null);
-        int photo;
-        if (c.moveToFirst()) {
-            photo = c.getInt(0);
-        } else {
-            addPhoto("");
-            query = "SELECT * " +
-                    "FROM " + Day.TABLE_NAME +
-                    " WHERE " + Day.COLUMN_NAME_CREATED + " LIKE '" + sdf.format(now).substring(0, 8) + "%'" +
-                    " LIMIT 1";
+        SQLiteDatabase db = getConnection();
+        boolean newDay = false;
+        int dayId;
+        int entryId;
+        db.beginTransaction();
+        try {
+            //if there's no day for this entry, we'll create a new day
+            dayId = getDayIdByKey(dayKey);
+            if (dayId == -1) {
+                dayId = insertDay("", now, dayKey);
+                newDay = true;
+            }
 
-            c = getConnection().rawQuery(query, null);
-            c.moveToFirst();
-            photo = c.getInt(0);
+            //insert the entry
+            SQLiteStatement insert = statement("INSERT INTO " + Entry.TABLE_NAME + " ( " +
+                    Entry.COLUMN_NAME_MESSAGE + " , " +
+                    Entry.COLUMN_NAME_MOOD_CODE + " , " +
+                    Entry.COLUMN_NAME_DAY_ID + " , " +
+                    Entry.COLUMN_NAME_CREATED + " , " +
+                    Entry.COLUMN_NAME_TZ_OFFSET +
+                    ") VALUES ( ?,?,?,?,? )");
+            insert.bindString(1, text);
+            insert.bindLong(2, mood);
+            insert.bindLong(3, dayId);
+            insert.bindLong(4, now);
+            insert.bindLong(5, DateCodec.getOffset(now));
+            entryId = (int) insert.executeInsert();
+            countMood(mood, dayKey, 1);
 
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
-        c.close();
 
-        //insert the entry
-        query = "INSERT INTO " + Entry.TABLE_NAME + " ( " +
-                Entry.COLUMN_NAME_MESSAGE + " , " +
-                Entry.COLUMN_NAME_MOOD + " , " +
-                Entry.COLUMN_NAME_DAY_ID + " , " +
-                Entry.COLUMN_NAME_CREATED +
-                ") VALUES ( ?,?,?,? )";
-        getConnection().execSQL(query, new Object[]{text, mood, photo, sdf.format(now)});
+        //the listeners hear only about committed changes
+        if (newDay) {
+            mDbManager.notifyDayAdded(dayId, "", now, dayKey);
+        }
+        mDbManager.notifyEntryAdded(dayId, entryId, text, mood, now);
     }
 
     /**
-     * Delete an entry
+     * Delete an entry, and its day if nothing else is left in it, in a single transaction
      *
      * @param id the message id
      */
     public void deleteEntryById(int id) {
-        //get the day id of this entry
-        Cursor entry = getEntryById(id);
-        entry.moveToFirst();
-        int day_id = entry.getInt(1);
-        entry.close();
+        SQLiteDatabase db = getConnection();
+        int dayId;
+        boolean dayDeleted = false;
+        db.beginTransaction();
+        try {
+            //the day of this entry, its photo and its number of entries, in a single query
+            String query = "SELECT e." + Entry.COLUMN_NAME_DAY_ID + ", d." + Day.COLUMN_NAME_FILENAME +
+                    ", (SELECT COUNT(*) FROM " + Entry.TABLE_NAME + " c" +
+                    " WHERE c." + Entry.COLUMN_NAME_DAY_ID + " = e." + Entry.COLUMN_NAME_DAY_ID + ")" +
+                    ", e." + Entry.COLUMN_NAME_MOOD_CODE + ", d." + Day.COLUMN_NAME_DAY_KEY +
+                    " FROM " + Entry.TABLE_NAME + " e" +
+                    " LEFT JOIN " + Day.TABLE_NAME + " d ON d." + Day._ID + " = e." + Entry.COLUMN_NAME_DAY_ID +
+                    " WHERE e." + Entry._ID + " = ?";
+            Cursor c = db.rawQuery(query, new String[]{Integer.toString(id)});
+            if (!c.moveToFirst()) {
+                //already deleted
+                c.close();
+                return;
+            }
+            dayId = c.getInt(0);
+            String filename = c.isNull(1) ? "" : c.getString(1);
+            int count = c.getInt(2);
+            int mood = c.getInt(3);
+            boolean hasDay = !c.isNull(4);
+            int dayKey = c.getInt(4);
+            c.close();
+
+            //if this entry is the only one associated with the day and it has no photo, we'll delete this day
+            if (filename.equals("") && count <= 1) {
+                executeById("DELETE FROM " + Day.TABLE_NAME + " WHERE " + Day._ID + " = ?", dayId);
+                dayDeleted = true;
+            }
+
+            //delete entry
+            executeById("DELETE FROM " + Entry.TABLE_NAME + " WHERE " + Entry._ID + " = ?", id);
+            if (hasDay) {
+                countMood(mood, dayKey, -1);
+            }
 
-        //if this entry is the only one associated with the day and it has no photo, we'll delete this day
-        Cursor day = getDayById(day_id);
-        Cursor day_entries = getEntriesByDay(day_id);
-        day.moveToFirst();
-        String filename = day.getString(1);
-        if (filename.equals("") && day_entries.getCount() <= 1) {
-            deleteDay(day_id, false);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
-        day.close();
-        day_entries.close();
 
-        //delete entry
-        String query = "DELETE FROM " + Entry.TABLE_NAME + " WHERE " + Entry._ID + " = " + id;
-        getConnection().execSQL(query);
+        if (dayDeleted) {
+            mDbManager.notifyDayDeleted(dayId);
+        }
+        mDbManager.notifyEntryDeleted(dayId, id);
     }
 
     /**
      * Modify the mood of the selected entry
      *
      * @param entryId entry id
-     * @param moodId  filename of the mood
+     * @param mood    the mood code, see Mood
      */
-    public void updateMood(int entryId, String moodId) {
-        String query = "UPDATE " + Entry.TABLE_NAME +
-                " SET " + Entry.COLUMN_NAME_MOOD + " =  ?" +
-                " WHERE " + Entry._ID + " = ?";
-        getConnection().execSQL(query, new Object[]{moodId, entryId});
+    public void updateMood(int entryId, int mood) {
+        SQLiteDatabase db = getConnection();
+        int dayId;
+        db.beginTransaction();
+        try {
+            //the previous mood and the day it was counted in
+            String query = "SELECT e." + Entry.COLUMN_NAME_DAY_ID + ", e." + Entry.COLUMN_NAME_MOOD_CODE +
+                    ", d." + Day.COLUMN_NAME_DAY_KEY +
+                    " FROM " + Entry.TABLE_NAME + " e" +
+                    " LEFT JOIN " + Day.TABLE_NAME + " d ON d." + Day._ID + " = e." + Entry.COLUMN_NAME_DAY_ID +
+                    " WHERE e." + Entry._ID + " = ?";
+            Cursor c = db.rawQuery(query, new String[]{Integer.toString(entryId)});
+            if (!c.moveToFirst()) {
+                //already deleted
+                c.close();
+                return;
+            }
+            dayId = c.getInt(0);
+            int oldMood = c.getInt(1);
+            boolean hasDay = !c.isNull(2);
+            int dayKey = c.getInt(2);
+            c.close();
+
+            SQLiteStatement update = statement("UPDATE " + Entry.TABLE_NAME +
+                    " SET " + Entry.COLUMN_NAME_MOOD_CODE + " = ?" +
+                    " WHERE " + Entry._ID + " = ?");
+            update.bindLong(1, mood);
+            update.bindLong(2, entryId);
+            update.execute();
+
+            if (hasDay) {
+                countMood(oldMood, dayKey, -1);
+                countMood(mood, dayKey, 1);
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        mDbManager.notifyMoodChanged(dayId, entryId, mood);
+    }
+
+    /**
+     * Adds or removes an entry from the mood statistics of its day, week and month
+     * Must be called in the same transaction that changes the entry
+     *
+     * @param mood   the mood code of the entry
+     * @param dayKey the day of the entry as a yyyyMMdd number
+     * @param delta  1 for a new entry, -1 for a removed one
+     */
+    private void countMood(int mood, int dayKey, int delta) {
+        countMood(MoodStats.PERIOD_DAY, dayKey, mood, delta);
+        countMood(MoodStats.PERIOD_WEEK, DateCodec.getWeekKey(dayKey), mood, delta);
+        countMood(MoodStats.PERIOD_MONTH, dayKey / 100, mood, delta);
+    }
+
+    private void countMood(int period, int periodKey, int mood, int delta) {
+        SQLiteStatement insert = statement("INSERT OR IGNORE INTO " + MoodStat.TABLE_NAME + " (" +
+                MoodStat.COLUMN_NAME_PERIOD + ", " + MoodStat.COLUMN_NAME_PERIOD_KEY + ", " +
+                MoodStat.COLUMN_NAME_MOOD + ", " + MoodStat.COLUMN_NAME_COUNT + ") VALUES (?, ?, ?, 0)");
+        insert.bindLong(1, period);
+        insert.bindLong(2, periodKey);
+        insert.bindLong(3, mood);
+        insert.execute();
+
+        SQLiteStatement update = statement("UPDATE " + MoodStat.TABLE_NAME +
+                " SET " + MoodStat.COLUMN_NAME_COUNT + " = " + MoodStat.COLUMN_NAME_COUNT + " + ?" +
+                " WHERE " + MoodStat.COLUMN_NAME_PERIOD + " = ? AND " + MoodStat.COLUMN_NAME_PERIOD_KEY + " = ?" +
+                " AND " + MoodStat.COLUMN_NAME_MOOD + " = ?");
+        update.bindLong(1, delta);
+        update.bindLong(2, period);
+        update.bindLong(3, periodKey);
+        update.bindLong(4, mood);
+        update.execute();
+
+        //don't keep the periods that have no entry left
+        if (delta < 0) {
+            SQLiteStatement delete = statement("DELETE FROM " + MoodStat.TABLE_NAME +
+                    " WHERE " + MoodStat.COLUMN_NAME_PERIOD + " = ? AND " + MoodStat.COLUMN_NAME_PERIOD_KEY + " = ?" +
+                    " AND " + MoodStat.COLUMN_NAME_MOOD + " = ? AND " + MoodStat.COLUMN_NAME_COUNT + " <= 0");
+            delete.bindLong(1, period);
+            delete.bindLong(2, periodKey);
+            delete.bindLong(3, mood);
+            delete.execute();
+        }
+    }
+
+    /**
+     * Counts the entries of every mood in a range of days
+     * The range is read from whole months plus the days at its ends, so it takes the same time whatever the number
+     * of entries
+     *
+     * @param fromDayKey the first day, as a yyyyMMdd number
+     * @param toDayKey   the last day, as a yyyyMMdd number
+     * @return a single period with the counts of the whole range, keyed by its first day
+     */
+    public MoodStats getMoodHistogram(int fromDayKey, int toDayKey) {
+        //the whole months in the range, the days outside them are read one by one
+        int firstMonth = fromDayKey % 100 == 1 ? fromDayKey / 100 : nextMonth(fromDayKey / 100);
+        int lastMonth = DateCodec.addDays(toDayKey, 1) % 100 == 1 ? toDayKey / 100 : previousMonth(toDayKey / 100);
+        String[] args;
+        if (firstMonth <= lastMonth) {
+            //no day has number 0 or 99, so the ends of the months are easy to bound
+            args = new String[]{
+                    Integer.toString(fromDayKey), Integer.toString(firstMonth * 100),
+                    Integer.toString(firstMonth), Integer.toString(lastMonth),
+                    Integer.toString(lastMonth * 100 + 99), Integer.toString(toDayKey)};
+        } else {
+            args = new String[]{
+                    Integer.toString(fromDayKey), Integer.toString(toDayKey), "0", "-1", "0", "-1"};
+        }
+
+        String query = "SELECT " + MoodStat.COLUMN_NAME_MOOD + ", SUM(" + MoodStat.COLUMN_NAME_COUNT + ")" +
+                " FROM " + MoodStat.TABLE_NAME +
+                " WHERE (" + MoodStat.COLUMN_NAME_PERIOD + " = " + MoodStats.PERIOD_DAY +
+                " AND " + MoodStat.COLUMN_NAME_PERIOD_KEY + " BETWEEN ? AND ?)" +
+                " OR (" + MoodStat.COLUMN_NAME_PERIOD + " = " + MoodStats.PERIOD_MONTH +
+                " AND " + MoodStat.COLUMN_NAME_PERIOD_KEY + " BETWEEN ? AND ?)" +
+                " OR (" + MoodStat.COLUMN_NAME_PERIOD + " = " + MoodStats.PERIOD_DAY +
+                " AND " + MoodStat.COLUMN_NAME_PERIOD_KEY + " BETWEEN ? AND ?)" +
+                " GROUP BY " + MoodStat.COLUMN_NAME_MOOD;
+        MoodStats stats = new MoodStats(MoodStats.PERIOD_RANGE);
+        Cursor c = getConnection().rawQuery(query, args);
+        while (c.moveToNext()) {
+            stats.add(fromDayKey, c.getInt(0), c.getInt(1));
+        }
+        c.close();
+        return stats;
+    }
+
+    /**
+     * Counts the entries of every mood per day, week or month
+     *
+     * @param period     one of MoodStats.PERIOD_DAY, PERIOD_WEEK and PERIOD_MONTH
+     * @param fromDayKey the first day, as a yyyyMMdd number
+     * @param toDayKey   the last day, as a yyyyMMdd number
+     * @return the periods with at least an entry, in date order; weeks and months at the ends are counted whole
+     */
+    public MoodStats getMoodTrend(int period, int fromDayKey, int toDayKey) {
+        int from;
+        int to;
+        switch (period) {
+            case MoodStats.PERIOD_WEEK:
+                from = DateCodec.getWeekKey(fromDayKey);
+                to = DateCodec.getWeekKey(toDayKey);
+                break;
+            case MoodStats.PERIOD_MONTH:
+                from = fromDayKey / 100;
+                to = toDayKey / 100;
+                break;
+            default:
+                period = MoodStats.PERIOD_DAY;
+                from = fromDayKey;
+                to = toDayKey;
+        }
+
+        String query = "SELECT " + MoodStat.COLUMN_NAME_PERIOD_KEY + ", " + MoodStat.COLUMN_NAME_MOOD +
+                ", " + MoodStat.COLUMN_NAME_COUNT +
+                " FROM " + MoodStat.TABLE_NAME +
+                " WHERE " + MoodStat.COLUMN_NAME_PERIOD + " = ?" +
+                " AND " + MoodStat.COLUMN_NAME_PERIOD_KEY + " BETWEEN ? AND ?" +
+                " ORDER BY " + MoodStat.COLUMN_NAME_PERIOD_KEY;
+        MoodStats stats = new MoodStats(period);
+        Cursor c = getConnection().rawQuery(query,
+                new String[]{Integer.toString(period), Integer.toString(from), Integer.toString(to)});
+        while (c.moveToNext()) {
+            stats.add(c.getInt(0), c.getInt(1), c.getInt(2));
+        }
+        c.close();
+        return stats;
+    }
+
+    private static int nextMonth(int month) {
+        return month % 100 == 12 ? (month / 100 + 1) * 100 + 1 : month + 1;
+    }
+
+    private static int previousMonth(int month) {
+        return month % 100 == 1 ? (month / 100 - 1) * 100 + 12 : month - 1;
     }
 
 
@@ -172,41 +491,51 @@ public class DBAdapter {
      * @param message The message to insert
      */
     public void updateMessage(int entryId, String message) {
-        String query = "UPDATE " + Entry.TABLE_NAME +
-                " SET " + Entry.COLUMN_NAME_MESSAGE + " =  ?" +
-                " WHERE " + Entry._ID + " = ?";
-        getConnection().execSQL(query, new Object[]{message, entryId});
+        int dayId = updateEntry(Entry.COLUMN_NAME_MESSAGE, entryId, message);
+        mDbManager.notifyMessageChanged(dayId, entryId, message);
     }
 
     /**
-     * Verify if the selected entry can be modified
+     * Sets a text column of an entry, and finds its day in the same transaction
      *
+     * @param column  the column to modify
      * @param entryId entry id
-     * @return boolean true if is editable, false otherwise
+     * @param value   the new value
+     * @return the id of the entry's day
      */
-    public boolean isEditableEntry(int entryId) {
-        int grace_period = Integer.parseInt(mPreferences.getString("grace_period", "1"));
-        //create the current timestamp
-        Date now = new Date(System.currentTimeMillis());
-        SimpleDateFormat sdf = new SimpleDateFormat(DateFormats.DATABASE, Locale.getDefault());
-
-        String query = "SELECT * FROM " + Entry.TABLE_NAME + " WHERE " + Entry._ID + " = " + entryId + " LIMIT 1";
-        Cursor c = getConnection().rawQuery(query, null);
-        c.moveToFirst();
-        Date created;
+    private int updateEntry(String column, int entryId, String value) {
+        SQLiteDatabase db = getConnection();
+        int dayId;
+        db.beginTransaction();
         try {
-            created = sdf.parse(c.getString(4));
-        } catch (ParseException e) {
-            e.printStackTrace();
-            return false;
+            SQLiteStatement update = statement("UPDATE " + Entry.TABLE_NAME +
+                    " SET " + column + " = ?" +
+                    " WHERE " + Entry._ID + " = ?");
+            update.bindString(1, value);
+            update.bindLong(2, entryId);
+            update.execute();
+            dayId = getDayIdByEntry(entryId);
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
-        c.close();
+        return dayId;
+    }
 
-        long now_mil = now.getTime();
-        long created_mil = created.getTime();
+    /**
+     * Verify if the selected entry can be modified
+     *
+     * @param entryId entry id
+     * @return boolean true if is editable, false otherwise
+     */
+    public boolean isEditableEntry(int entryId) {
+        //entries created after this moment can still be modified
+        long limit = System.currentTimeMillis() - mDbManager.getGracePeriod();
 
-        long diff = now_mil - created_mil;
-        return diff < grace_period * 60 * 60 * 1000;
+        String query = "SELECT COUNT(*) FROM " + Entry.TABLE_NAME +
+                " WHERE " + Entry._ID + " = ? AND " + Entry.COLUMN_NAME_CREATED + " > ?";
+        return queryForLong(query, entryId, limit) > 0;
     }
 
     /**
@@ -217,11 +546,12 @@ public class DBAdapter {
      * @return The cursor containing the single row or zero rows, with as only column the ID
      */
     public Cursor getNextEntry(int currentEntry, boolean backwards) {
-        String query = "SELECT " + Entry._ID + " FROM " + Entry.TABLE_NAME + " " +
-                "WHERE " + Entry._ID + " " + (backwards ? "<" : ">") + currentEntry + " " +
-                "ORDER BY " + Day._ID + " " + (backwards ? "DESC" : "ASC") + " " +
-                "LIMIT 1";
-        Cursor result = getConnection().rawQuery(query, null);
+        String query = backwards ?
+                "SELECT " + Entry._ID + " FROM " + Entry.TABLE_NAME +
+                        " WHERE " + Entry._ID + " < ? ORDER BY " + Entry._ID + " DESC LIMIT 1" :
+                "SELECT " + Entry._ID + " FROM " + Entry.TABLE_NAME +
+                        " WHERE " + Entry._ID + " > ? ORDER BY " + Entry._ID + " ASC LIMIT 1";
+        Cursor result = getConnection().rawQuery(query, new String[]{Integer.toString(currentEntry)});
         if (result.getCount() <= 0) {
             result.close();
             return getEntryById(currentEntry);
@@ -238,14 +568,10 @@ public class DBAdapter {
      * @return true is it has a next or previous, false otherwise
      */
     public boolean hasNextEntry(int currentEntry, boolean backwards) {
-        String query = "SELECT " + Entry._ID + " FROM " + Entry.TABLE_NAME + " " +
-                "WHERE " + Entry._ID + " " + (backwards ? "<" : ">") + currentEntry + " " +
-                "ORDER BY " + Day._ID + " " + (backwards ? "DESC" : "ASC") + " " +
-                "LIMIT 1";
-        Cursor result = getConnection().rawQuery(query, null);
-        boolean hasNext = result.getCount() > 0;
-        result.close();
-        return hasNext;
+        String query = backwards ?
+                "SELECT EXISTS (SELECT 1 FROM " + Entry.TABLE_NAME + " WHERE " + Entry._ID + " < ?)" :
+                "SELECT EXISTS (SELECT 1 FROM " + Entry.TABLE_NAME + " WHERE " + Entry._ID + " > ?)";
+        return queryForLong(query, currentEntry) != 0;
     }
 
 
@@ -261,14 +587,24 @@ public class DBAdapter {
      *         otherwise (in this case db isn't modified)
      */
     public int deleteDay(int id, boolean consistency) {
-        Cursor c = getEntriesByDay(id);
-        int count = c.getCount();
+        SQLiteDatabase db = getConnection();
+        int count;
+        db.beginTransaction();
+        try {
+            count = countEntriesByDay(id);
+            if (count <= 0 || !consistency) {
+                //delete the entry
+                executeById("DELETE FROM " + Day.TABLE_NAME + " WHERE " + Day._ID + " = ?", id);
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
         if (count <= 0 || !consistency) {
-            //delete the entry
-            String query = "DELETE FROM " + Day.TABLE_NAME + " WHERE " + Day._ID + " = " + id;
-            getConnection().execSQL(query);
+            mDbManager.notifyDayDeleted(id);
         }
-        c.close();
         return count;
     }
 
@@ -279,66 +615,117 @@ public class DBAdapter {
      * @return a Cursor that contains the selected day
      */
     public Cursor getDayByEntry(int id) {
-        Cursor c = this.getEntryById(id);
-        c.moveToFirst();
-        int day = c.getInt(1);
-        c.close();
-        return getDayById(day);
+        return getDayById(getDayIdByEntry(id));
+    }
+
+    /**
+     * Get the id of the day associated with the given entry
+     *
+     * @param id entry's id
+     * @return the day id
+     */
+    private int getDayIdByEntry(int id) {
+        String query = "SELECT " + Entry.COLUMN_NAME_DAY_ID + " FROM " + Entry.TABLE_NAME +
+                " WHERE " + Entry._ID + " = ?";
+        return (int) queryForLong(query, id);
     }
 
     /**
-     * Delete the selected photo
+     * Delete the selected photo, and the day too if it has no entry
      *
      * @param id the day id
      */
     public void deletePhoto(int id) {
-        //try to delete the day
-        int entries = this.deleteDay(id, true);
-        //if deleteDay coldn't delete the day we have to clear the field 'filename'
-        if (entries > 0) {
-            //delete the filename
-            String query = "UPDATE " + Day.TABLE_NAME + " " +
-                    "SET " + Day.COLUMN_NAME_FILENAME + " = ''" +
-                    "WHERE " + Day._ID + " = " + id;
-            getConnection().execSQL(query);
+        SQLiteDatabase db = getConnection();
+        int entries;
+        db.beginTransaction();
+        try {
+            entries = countEntriesByDay(id);
+            if (entries <= 0) {
+                //nothing else is left in the day
+                executeById("DELETE FROM " + Day.TABLE_NAME + " WHERE " + Day._ID + " = ?", id);
+            } else {
+                //the day is kept for its entries, we have to clear the field 'filename'
+                executeById("UPDATE " + Day.TABLE_NAME +
+                        " SET " + Day.COLUMN_NAME_FILENAME + " = ''" +
+                        " WHERE " + Day._ID + " = ?", id);
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if (entries <= 0) {
+            mDbManager.notifyDayDeleted(id);
+        } else {
+            mDbManager.notifyPhotoChanged(id, "");
         }
     }
 
     /**
-     * Add a photo to the current day
+     * Add a photo to the current day, creating the day if needed
      *
      * @param filename the path of the photo
      */
     public void addPhoto(String filename) {
         //create the current timestamp
-        Date now = new Date(System.currentTimeMillis());
-        SimpleDateFormat sdf = new SimpleDateFormat(DateFormats.DATABASE, Locale.getDefault());
-        String date = sdf.format(now);
+        long now = System.currentTimeMillis();
+        int dayKey = DateCodec.getDayKey(now);
 
-        //verify if there is a row for this day
-        String query = "SELECT * " +
-                " FROM " + Day.TABLE_NAME +
-                " WHERE " + Day.COLUMN_NAME_CREATED + " LIKE '" + date.substring(0, 8) + "%'" +
-                " LIMIT 1";
-
-        Cursor c = getConnection().rawQuery(query, null);
-
-        if (c.getCount() > 0) {
-            //modify the filename
-            c.moveToFirst();
-            query = "UPDATE " + Day.TABLE_NAME + " " +
-                    "SET " + Day.COLUMN_NAME_FILENAME + " = ?" +
-                    "WHERE " + Day._ID + " = ?";
-            getConnection().execSQL(query, new Object[]{filename, c.getInt(0)});
+        SQLiteDatabase db = getConnection();
+        boolean newDay = false;
+        int dayId;
+        db.beginTransaction();
+        try {
+            //verify if there is a row for this day
+            dayId = getDayIdByKey(dayKey);
+            if (dayId != -1) {
+                //modify the filename
+                SQLiteStatement update = statement("UPDATE " + Day.TABLE_NAME +
+                        " SET " + Day.COLUMN_NAME_FILENAME + " = ?" +
+                        " WHERE " + Day._ID + " = ?");
+                update.bindString(1, filename);
+                update.bindLong(2, dayId);
+                update.execute();
+            } else {
+                dayId = insertDay(filename, now, dayKey);
+                newDay = true;
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if (newDay) {
+            mDbManager.notifyDayAdded(dayId, filename, now, dayKey);
         } else {
-            //insert the entry
-            query = "INSERT INTO " + Day.TABLE_NAME + " ( " +
-                    Day.COLUMN_NAME_FILENAME + " , " +
-                    Day.COLUMN_NAME_CREATED +
-                    ") VALUES (?, ?)";
-            getConnection().execSQL(query, new Object[]{filename, date});
+            mDbManager.notifyPhotoChanged(dayId, filename);
         }
-        c.close();
+    }
+
+    /**
+     * Inserts the row of a day, must be called inside a transaction
+     *
+     * @param filename the path of the photo, or an empty string
+     * @param now      the creation date in milliseconds
+     * @param dayKey   the day as a yyyyMMdd number
+     * @return the id of the new day
+     */
+    private int insertDay(String filename, long now, int dayKey) {
+        SQLiteStatement insert = statement("INSERT INTO " + Day.TABLE_NAME + " ( " +
+                Day.COLUMN_NAME_FILENAME + " , " +
+                Day.COLUMN_NAME_CREATED + " , " +
+                Day.COLUMN_NAME_DAY_KEY + " , " +
+                Day.COLUMN_NAME_TZ_OFFSET +
+                ") VALUES (?, ?, ?, ?)");
+        insert.bindString(1, filename);
+        insert.bindLong(2, now);
+        insert.bindLong(3, dayKey);
+        insert.bindLong(4, DateCodec.getOffset(now));
+        //executeInsert returns the new rowid, no need to look for the day again
+        return (int) insert.executeInsert();
     }
 
     /**
@@ -350,10 +737,23 @@ public class DBAdapter {
     public Cursor getPhotoByDay(String day) {
         String query = "SELECT * " +
                 "FROM " + Day.TABLE_NAME + " " +
-                "WHERE " + Day.COLUMN_NAME_CREATED + " LIKE '" + day + "%' " +
+                "WHERE " + Day.COLUMN_NAME_DAY_KEY + " = ? " +
                 "LIMIT 1";
 
-        return getConnection().rawQuery(query, null);
+        return getConnection().rawQuery(query, new String[]{day});
+    }
+
+    /**
+     * Finds the day through the unique index on its key
+     *
+     * @param dayKey Day as the number yyyyMMdd
+     * @return The day id, or -1 if there's no such day
+     */
+    private int getDayIdByKey(int dayKey) {
+        //IFNULL makes sure there's always a row for simpleQueryForLong()
+        String query = "SELECT IFNULL((SELECT " + Day._ID + " FROM " + Day.TABLE_NAME +
+                " WHERE " + Day.COLUMN_NAME_DAY_KEY + " = ?), -1)";
+        return (int) queryForLong(query, dayKey);
     }
 
     /**
@@ -367,12 +767,32 @@ public class DBAdapter {
     }
 
     /**
-     * Get all the days ordered by date (DESC)
+     * Get a page of days ordered by date (DESC) together with the number of their entries, in a single pass
+     * Pages are taken by key, so the cost doesn't grow with the number of days already loaded
      *
-     * @return Cursor containing the days
+     * @param beforeDayId only days with a lower id are returned, Integer.MAX_VALUE for the first page
+     * @param limit       the maximum number of days
+     * @return Cursor with the columns _id, filename, created, entry count, day_key
+     */
+    public Cursor getDaysWithEntryCount(int beforeDayId, int limit) {
+        String query = "SELECT d." + Day._ID + ", d." + Day.COLUMN_NAME_FILENAME + ", d." + Day.COLUMN_NAME_CREATED +
+                ", COUNT(e." + Entry._ID + "), d." + Day.COLUMN_NAME_DAY_KEY +
+                " FROM " + Day.TABLE_NAME + " d" +
+                " LEFT JOIN " + Entry.TABLE_NAME + " e ON e." + Entry.COLUMN_NAME_DAY_ID + " = d." + Day._ID +
+                " WHERE d." + Day._ID + " < ?" +
+                " GROUP BY d." + Day._ID +
+                " ORDER BY d." + Day._ID + " DESC" +
+                " LIMIT ?";
+        return getConnection().rawQuery(query, new String[]{Integer.toString(beforeDayId), Integer.toString(limit)});
+    }
+
+    /**
+     * Get all the days with a photo ordered by date (DESC)
+     *
+     * @return Cursor containing the id and the filename of the days
      */
     public Cursor getAllPhotos() {
-        String query = "SELECT * FROM " + Day.TABLE_NAME +
+        String query = "SELECT " + Day._ID + ", " + Day.COLUMN_NAME_FILENAME + " FROM " + Day.TABLE_NAME +
                 " WHERE " + Day.COLUMN_NAME_FILENAME + "<> ''" +
                 " ORDER BY " + Day._ID + " DESC";
         return getConnection().rawQuery(query, null);
@@ -385,8 +805,8 @@ public class DBAdapter {
      * @return a Cursor that contains the selected entry, or null
      */
     public Cursor getDayById(int id) {
-        String query = "SELECT * FROM " + Day.TABLE_NAME + " WHERE " + Day._ID + " = " + id + " LIMIT 1";
-        return getConnection().rawQuery(query, null);
+        String query = "SELECT * FROM " + Day.TABLE_NAME + " WHERE " + Day._ID + " = ? LIMIT 1";
+        return getConnection().rawQuery(query, new String[]{Integer.toString(id)});
     }
 
     /**
@@ -396,17 +816,10 @@ public class DBAdapter {
      * @return boolean true if it is editable, false otherwise
      */
     public boolean isEditableDay(int dayId) {
-        //create the current timestamp
-        Date now = new Date(System.currentTimeMillis());
-        SimpleDateFormat sdf = new SimpleDateFormat(DateFormats.DATABASE, Locale.getDefault());
-
-        String query = "SELECT * FROM " + Day.TABLE_NAME + " WHERE " + Day._ID + " = " + dayId + " LIMIT 1";
-        Cursor c = getConnection().rawQuery(query, null);
-        c.moveToFirst();
-        String created_date = c.getString(2).substring(0, 8);
-        c.close();
-        String current_date = sdf.format(now).substring(0, 8);
-        return created_date.equals(current_date);
+        //only today's day can be modified
+        String query = "SELECT COUNT(*) FROM " + Day.TABLE_NAME +
+                " WHERE " + Day._ID + " = ? AND " + Day.COLUMN_NAME_DAY_KEY + " = ?";
+        return queryForLong(query, dayId, DateCodec.getDayKey(System.currentTimeMillis())) > 0;
     }
 
     /**
@@ -417,11 +830,272 @@ public class DBAdapter {
      * @return The cursor containing the single row or zero rows, with as only column the ID
      */
     public Cursor getNextDay(int currentDay, boolean backwards) {
-        String query = "SELECT " + Day._ID + " FROM " + Day.TABLE_NAME + " " +
-                "WHERE " + Day._ID + " " + (backwards ? "<" : ">") + " ? " +
-                "AND " + Day.COLUMN_NAME_FILENAME + " <> ? " +
-                "ORDER BY " + Day._ID + " " + (backwards ? "DESC" : "ASC") + " " +
-                "LIMIT 1";
+        String query = backwards ?
+                "SELECT " + Day._ID + " FROM " + Day.TABLE_NAME +
+                        " WHERE " + Day._ID + " < ? AND " + Day.COLUMN_NAME_FILENAME + " <> ?" +
+                        " ORDER BY " + Day._ID + " DESC LIMIT 1" :
+                "SELECT " + Day._ID + " FROM " + Day.TABLE_NAME +
+                        " WHERE " + Day._ID + " > ? AND " + Day.COLUMN_NAME_FILENAME + " <> ?" +
+                        " ORDER BY " + Day._ID + " ASC LIMIT 1";
         return getConnection().rawQuery(query, new String[]{Integer.toString(currentDay), ""});
     }
+
+    /**
+     * Searches the messages of the entries, best matches first
+     * Every word of at least MIN_PREFIX_LENGTH letters matches as a prefix, shorter ones as whole words, words between double quotes must appear as a phrase; all of them are required.
+     * Only the ids of the newest MAX_RANKED matches are read to rank them, then the snippets of the requested page; the
+     * first page ranks again, the following ones reuse its ranking
+     *
+     * @param query  the text to look for, as typed by the user
+     * @param limit  the maximum number of results
+     * @param offset the number of best matches to skip
+     * @return the page of results, empty if there's nothing to look for
+     */
+    public SearchResults search(String query, int limit, int offset) {
+        return search(query, limit, offset, null);
+    }
+
+    /**
+     * Searches the messages of the entries like search(String, int, int), stopping as soon as it gets cancelled
+     *
+     * @param query        the text to look for, as typed by the user
+     * @param limit        the maximum number of results
+     * @param offset       the number of best matches to skip
+     * @param cancellation cancels the search, can be null
+     * @return the page of results, or null if the search has been cancelled
+     */
+    public SearchResults search(String query, int limit, int offset, QueryCancellation cancellation) {
+        if (cancellation != null && cancellation.isCancelled()) {
+            return null;
+        }
+
+        try {
+            return runSearch(query, limit, offset, cancellation);
+        } catch (RuntimeException e) {
+            //an interrupted query throws OperationCanceledException, which doesn't exist on older versions
+            if (cancellation != null && cancellation.isCancelled()) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    private SearchResults runSearch(String query, int limit, int offset, QueryCancellation cancellation) {
+        String match = toMatchExpression(query);
+        if (match == null) {
+            mSearchMatch = null;
+            mSearchIds = null;
+            return new SearchResults(offset, 0, 0, 0);
+        }
+
+        if (offset == 0 || !match.equals(mSearchMatch)) {
+            mSearchIds = rankMatches(match, cancellation);
+            //the ranking is complete below the cap, else the count is cheap compared to reading the matches
+            mSearchTotal = mSearchIds.length < MAX_RANKED ? mSearchIds.length : countMatches(match, cancellation);
+            mSearchMatch = match;
+        }
+        int[] ids = mSearchIds;
+        int count = Math.max(0, Math.min(limit, ids.length - offset));
+        SearchResults results = new SearchResults(offset, mSearchTotal, ids.length, count);
+        if (count == 0) {
+            return results;
+        }
+
+        //the snippets of this page only, the query shape depends just on the page size
+        StringBuilder sql = new StringBuilder("SELECT e." + Entry._ID + ", e." + Entry.COLUMN_NAME_DAY_ID +
+                ", e." + Entry.COLUMN_NAME_CREATED + ", e." + Entry.COLUMN_NAME_MOOD_CODE +
+                ", snippet(" + Entry.FTS_TABLE_NAME + ", ?, ?, ?)" +
+                " FROM " + Entry.FTS_TABLE_NAME +
+                " INNER JOIN " + Entry.TABLE_NAME + " e ON e." + Entry._ID + " = " + Entry.FTS_TABLE_NAME + ".docid" +
+                " WHERE " + Entry.FTS_TABLE_NAME + " MATCH ? AND " + Entry.FTS_TABLE_NAME + ".docid IN (?");
+        String[] args = new String[4 + count];
+        args[0] = SearchResults.HIGHLIGHT_START;
+        args[1] = SearchResults.HIGHLIGHT_END;
+        args[2] = "\u2026";
+        args[3] = match;
+        args[4] = Integer.toString(ids[offset]);
+        for (int i = 1; i < count; i++) {
+            sql.append(", ?");
+            args[4 + i] = Integer.toString(ids[offset + i]);
+        }
+        sql.append(")");
+
+        //the rows come in any order, put them back in the order of the ranking
+        SparseIntArray positions = new SparseIntArray(count);
+        for (int i = 0; i < count; i++) {
+            positions.put(ids[offset + i], i);
+        }
+        int[] dayIds = new int[count];
+        long[] created = new long[count];
+        int[] moods = new int[count];
+        String[] snippets = new String[count];
+        boolean[] found = new boolean[count];
+        Cursor c = rawQuery(sql.toString(), args, cancellation);
+        try {
+            while (c.moveToNext()) {
+                int i = positions.get(c.getInt(0), -1);
+                if (i >= 0) {
+                    dayIds[i] = c.getInt(1);
+                    created[i] = c.getLong(2);
+                    moods[i] = c.getInt(3);
+                    snippets[i] = c.getString(4);
+                    found[i] = true;
+                }
+            }
+        } finally {
+            c.close();
+        }
+
+        for (int i = 0; i < count; i++) {
+            //entries deleted after the ranking are skipped
+            if (found[i]) {
+                results.add(ids[offset + i], dayIds[i], created[i], moods[i], snippets[i]);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Runs a query that can be cancelled
+     *
+     * @param sql          the query
+     * @param args         the arguments of the query
+     * @param cancellation cancels the query, can be null
+     * @return the cursor
+     */
+    private Cursor rawQuery(String sql, String[] args, QueryCancellation cancellation) {
+        if (cancellation == null) {
+            return getConnection().rawQuery(sql, args);
+        }
+        return cancellation.rawQuery(getConnection(), sql, args);
+    }
+
+    /**
+     * Finds the newest MAX_RANKED entries that match and sorts them by relevance, reading only the ids and the match
+     * statistics
+     *
+     * @param match        the FTS expression
+     * @param cancellation cancels the query, can be null
+     * @return the entry ids, best match first
+     */
+    private int[] rankMatches(String match, QueryCancellation cancellation) {
+        //the newest ids are picked first, so matchinfo() is computed only for the rows that are ranked
+        Cursor c = rawQuery("SELECT docid, matchinfo(" + Entry.FTS_TABLE_NAME + ")" +
+                " FROM " + Entry.FTS_TABLE_NAME + " WHERE " + Entry.FTS_TABLE_NAME + " MATCH ? AND docid IN (" +
+                "SELECT docid FROM " + Entry.FTS_TABLE_NAME + " WHERE " + Entry.FTS_TABLE_NAME + " MATCH ?" +
+                " ORDER BY docid DESC LIMIT " + MAX_RANKED + ")", new String[]{match, match}, cancellation);
+        //score and id packed in a long: positive floats sort like their bits, so a single sort ranks them
+        long[] ranked;
+        int i = 0;
+        try {
+            ranked = new long[c.getCount()];
+            while (c.moveToNext()) {
+                float score = score(c.getBlob(1));
+                ranked[i++] = ((long) Float.floatToIntBits(score) << 32) | c.getInt(0);
+            }
+        } finally {
+            c.close();
+        }
+
+        Arrays.sort(ranked);
+        int[] ids = new int[ranked.length];
+        for (i = 0; i < ranked.length; i++) {
+            //highest score first, then the newest entry
+            ids[i] = (int) ranked[ranked.length - 1 - i];
+        }
+        return ids;
+    }
+
+    /**
+     * Counts the entries that match, without reading them
+     *
+     * @param match        the FTS expression
+     * @param cancellation cancels the query, can be null
+     * @return the number of matches
+     */
+    private int countMatches(String match, QueryCancellation cancellation) {
+        Cursor c = rawQuery("SELECT COUNT(*) FROM " + Entry.FTS_TABLE_NAME + " WHERE " + Entry.FTS_TABLE_NAME +
+                " MATCH ?", new String[]{match}, cancellation);
+        try {
+            return c.moveToFirst() ? c.getInt(0) : 0;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Scores a match from the default matchinfo() of FTS3: every phrase counts its hits in the entry, weighted by how
+     * rare it is in the whole diary
+     *
+     * @param matchinfo the blob of 32-bit integers in machine byte order
+     * @return a positive score, higher is better
+     */
+    private static float score(byte[] matchinfo) {
+        ByteBuffer info = ByteBuffer.wrap(matchinfo).order(ByteOrder.nativeOrder());
+        int phrases = info.getInt(0);
+        int columns = info.getInt(4);
+        float score = 0;
+        for (int phrase = 0; phrase < phrases; phrase++) {
+            for (int column = 0; column < columns; column++) {
+                int base = 4 * (2 + 3 * (phrase * columns + column));
+                int hitsHere = info.getInt(base);
+                int hitsEverywhere = info.getInt(base + 4);
+                if (hitsEverywhere > 0) {
+                    score += (float) hitsHere / hitsEverywhere;
+                }
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Turns the text typed by the user into a FTS expression: words become prefix terms and quoted text becomes a
+     * phrase, anything else is dropped so the user can never write an invalid expression
+     *
+     * @param query the text typed by the user
+     * @return the expression, or null if there's no word to look for
+     */
+    private static String toMatchExpression(String query) {
+        if (query == null) {
+            return null;
+        }
+
+        StringBuilder match = new StringBuilder();
+        StringBuilder phrase = new StringBuilder();
+        StringBuilder word = new StringBuilder();
+        boolean inPhrase = false;
+        int length = query.length();
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? query.charAt(i) : ' ';
+            //the default tokenizer keeps ASCII letters and digits and every non-ASCII character
+            if (c >= 128 || (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+                word.append(c < 128 ? Character.toLowerCase(c) : c);
+                continue;
+            }
+
+            if (word.length() > 0) {
+                if (inPhrase) {
+                    phrase.append(phrase.length() > 0 ? " " : "").append(word);
+                } else {
+                    match.append(match.length() > 0 ? " " : "").append(word);
+                    //a short prefix would match almost every entry
+                    if (word.length() >= MIN_PREFIX_LENGTH) {
+                        match.append('*');
+                    }
+                }
+                word.setLength(0);
+            }
+
+            //a quote opens or closes a phrase, the last one is closed by the end of the text
+            if (c == '"' || (i == length && inPhrase)) {
+                if (inPhrase && phrase.length() > 0) {
+                    match.append(match.length() > 0 ? " " : "").append('"').append(phrase).append('"');
+                }
+                phrase.setLength(0);
+                inPhrase = !inPhrase;
+            }
+        }
+
+        return match.length() > 0 ? match.toString() : null;
+    }
 }
@@ -1,19 +1,59 @@
 package net.analogyc.wordiary.database;
 
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.util.Log;
+
+import net.analogyc.wordiary.models.DateCodec;
+import net.analogyc.wordiary.models.Mood;
+import net.analogyc.wordiary.models.MoodStats;
+
+import java.text.ParseException;
 
 public class DataBaseHelper extends SQLiteOpenHelper {
 
     public static final String DATABASE_NAME = "wordiary.db";
-    public static final int DATABASE_VERSION = 1;
+    public static final int DATABASE_VERSION = 7;
+
+    // rows converted by every step of a migration done in Java
+    private static final int MIGRATION_BATCH = 500;
 
     public DataBaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+
+        // with write-ahead logging the adapters can read while the activities write
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            enableWriteAheadLogging();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void enableWriteAheadLogging() {
+        setWriteAheadLoggingEnabled(true);
     }
 
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+
+        // before Jelly Bean the helper can't do it by itself
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !db.isReadOnly()) {
+            db.enableWriteAheadLogging();
+        }
+    }
+
+    /**
+     * Creates the first version of the schema, then brings it up to date with the same migrations of onUpgrade
+     *
+     * @param db The new database
+     */
     @Override
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(
@@ -33,10 +73,287 @@ public class DataBaseHelper extends SQLiteOpenHelper {
                         Day.COLUMN_NAME_CREATED + " TEXT" +
                         ");"
         );
+
+        onUpgrade(db, 1, DATABASE_VERSION);
     }
 
+    /**
+     * Applies in order every migration between the two versions
+     *
+     * @param db         The database to migrate
+     * @param oldVersion The current version of the schema
+     * @param newVersion The version to reach
+     */
     @Override
-    public void onUpgrade(SQLiteDatabase arg0, int arg1, int arg2) {
-        // NOT USED
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            upgradeToDayKey(db);
+        }
+        if (oldVersion < 3) {
+            upgradeToEntriesDayIndex(db);
+        }
+        if (oldVersion < 4) {
+            upgradeToMillis(db);
+        }
+        if (oldVersion < 5) {
+            upgradeToFullTextSearch(db);
+        }
+        if (oldVersion < 6) {
+            upgradeToMoodStats(db);
+        }
+        if (oldVersion < 7) {
+            upgradeToMoodCodes(db);
+        }
+    }
+
+    /**
+     * Version 2: adds the indexed yyyyMMdd day key, so finding today's row doesn't scan the table with LIKE
+     *
+     * @param db The database to migrate
+     */
+    private void upgradeToDayKey(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + Day.TABLE_NAME + " ADD COLUMN " + Day.COLUMN_NAME_DAY_KEY + " INTEGER");
+        db.execSQL("UPDATE " + Day.TABLE_NAME + " SET " + Day.COLUMN_NAME_DAY_KEY +
+                " = CAST(substr(" + Day.COLUMN_NAME_CREATED + ", 1, 8) AS INTEGER)");
+
+        // the key must be unique: if a day was ever stored twice, merge it into its oldest row
+        String firstOfDay = "SELECT MIN(" + Day._ID + ") FROM " + Day.TABLE_NAME + " GROUP BY " + Day.COLUMN_NAME_DAY_KEY;
+        db.execSQL("UPDATE " + Day.TABLE_NAME + " SET " + Day.COLUMN_NAME_FILENAME + " = (" +
+                "SELECT d." + Day.COLUMN_NAME_FILENAME + " FROM " + Day.TABLE_NAME + " d" +
+                " WHERE d." + Day.COLUMN_NAME_DAY_KEY + " = " + Day.TABLE_NAME + "." + Day.COLUMN_NAME_DAY_KEY +
+                " AND d." + Day.COLUMN_NAME_FILENAME + " <> '' ORDER BY d." + Day._ID + " DESC LIMIT 1)" +
+                " WHERE " + Day.COLUMN_NAME_FILENAME + " = ''" +
+                " AND " + Day._ID + " IN (" + firstOfDay + " HAVING COUNT(*) > 1)" +
+                " AND EXISTS (SELECT 1 FROM " + Day.TABLE_NAME + " d" +
+                " WHERE d." + Day.COLUMN_NAME_DAY_KEY + " = " + Day.TABLE_NAME + "." + Day.COLUMN_NAME_DAY_KEY +
+                " AND d." + Day.COLUMN_NAME_FILENAME + " <> '')");
+        db.execSQL("UPDATE " + Entry.TABLE_NAME + " SET " + Entry.COLUMN_NAME_DAY_ID + " = (" +
+                "SELECT MIN(d2." + Day._ID + ") FROM " + Day.TABLE_NAME + " d1" +
+                " INNER JOIN " + Day.TABLE_NAME + " d2 ON d2." + Day.COLUMN_NAME_DAY_KEY + " = d1." + Day.COLUMN_NAME_DAY_KEY +
+                " WHERE d1." + Day._ID + " = " + Entry.TABLE_NAME + "." + Entry.COLUMN_NAME_DAY_ID + ")" +
+                " WHERE " + Entry.COLUMN_NAME_DAY_ID + " IN (SELECT " + Day._ID + " FROM " + Day.TABLE_NAME + ")" +
+                " AND " + Entry.COLUMN_NAME_DAY_ID + " NOT IN (" + firstOfDay + ")");
+        db.execSQL("DELETE FROM " + Day.TABLE_NAME + " WHERE " + Day._ID + " NOT IN (" + firstOfDay + ")");
+
+        db.execSQL("CREATE UNIQUE INDEX " + Day.INDEX_DAY_KEY + " ON " + Day.TABLE_NAME +
+                " (" + Day.COLUMN_NAME_DAY_KEY + ")");
+    }
+
+    /**
+     * Version 3: indexes the entries by day, so lists and counts per day are answered by the index
+     *
+     * @param db The database to migrate
+     */
+    private void upgradeToEntriesDayIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX " + Entry.INDEX_DAY_ID + " ON " + Entry.TABLE_NAME +
+                " (" + Entry.COLUMN_NAME_DAY_ID + ", " + Entry._ID + " DESC)");
+    }
+
+    /**
+     * Version 4: stores the creation dates as epoch milliseconds, with the offset of the time zone they were taken in
+     * SQLite can't change the type of a column, so both tables are rebuilt with the same ids, then every date is
+     * converted in batches of rows; the whole upgrade is a single transaction, so it either completes or changes nothing
+     *
+     * @param db The database to migrate
+     */
+    private void upgradeToMillis(SQLiteDatabase db) {
+        String columns = Entry._ID + ", " + Entry.COLUMN_NAME_DAY_ID + ", " + Entry.COLUMN_NAME_MESSAGE + ", " +
+                Entry.COLUMN_NAME_MOOD + ", " + Entry.COLUMN_NAME_CREATED;
+        rebuildTable(db, Entry.TABLE_NAME, columns, "CREATE TABLE " + Entry.TABLE_NAME + " (" +
+                Entry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                Entry.COLUMN_NAME_DAY_ID + " INTEGER," +
+                Entry.COLUMN_NAME_MESSAGE + " TEXT," +
+                Entry.COLUMN_NAME_MOOD + " TEXT," +
+                Entry.COLUMN_NAME_CREATED + " INTEGER," +
+                Entry.COLUMN_NAME_TZ_OFFSET + " INTEGER" +
+                ");");
+        convertCreated(db, Entry.TABLE_NAME);
+
+        columns = Day._ID + ", " + Day.COLUMN_NAME_FILENAME + ", " + Day.COLUMN_NAME_CREATED + ", " + Day.COLUMN_NAME_DAY_KEY;
+        rebuildTable(db, Day.TABLE_NAME, columns, "CREATE TABLE " + Day.TABLE_NAME + " (" +
+                Day._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                Day.COLUMN_NAME_FILENAME + " TEXT," +
+                Day.COLUMN_NAME_CREATED + " INTEGER," +
+                Day.COLUMN_NAME_DAY_KEY + " INTEGER," +
+                Day.COLUMN_NAME_TZ_OFFSET + " INTEGER" +
+                ");");
+        convertCreated(db, Day.TABLE_NAME);
+
+        // the indexes went away with the old tables
+        db.execSQL("CREATE UNIQUE INDEX " + Day.INDEX_DAY_KEY + " ON " + Day.TABLE_NAME +
+                " (" + Day.COLUMN_NAME_DAY_KEY + ")");
+        upgradeToEntriesDayIndex(db);
+    }
+
+    /**
+     * Version 5: indexes the messages in a full-text table, with the entry ids as docid
+     * FTS3 is the only module available on every supported version; triggers keep the index in sync with the entries,
+     * so no query ever needs to read the messages to search them
+     *
+     * @param db The database to migrate
+     */
+    private void upgradeToFullTextSearch(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + Entry.FTS_TABLE_NAME + " USING fts3(" + Entry.COLUMN_NAME_MESSAGE + ")");
+        db.execSQL("INSERT INTO " + Entry.FTS_TABLE_NAME + " (docid, " + Entry.COLUMN_NAME_MESSAGE + ")" +
+                " SELECT " + Entry._ID + ", " + Entry.COLUMN_NAME_MESSAGE + " FROM " + Entry.TABLE_NAME);
+
+        db.execSQL("CREATE TRIGGER " + Entry.TRIGGER_FTS_INSERT + " AFTER INSERT ON " + Entry.TABLE_NAME + " BEGIN" +
+                " INSERT INTO " + Entry.FTS_TABLE_NAME + " (docid, " + Entry.COLUMN_NAME_MESSAGE + ")" +
+                " VALUES (new." + Entry._ID + ", new." + Entry.COLUMN_NAME_MESSAGE + "); END");
+        db.execSQL("CREATE TRIGGER " + Entry.TRIGGER_FTS_UPDATE + " AFTER UPDATE OF " + Entry.COLUMN_NAME_MESSAGE +
+                " ON " + Entry.TABLE_NAME + " BEGIN" +
+                " UPDATE " + Entry.FTS_TABLE_NAME + " SET " + Entry.COLUMN_NAME_MESSAGE + " = new." + Entry.COLUMN_NAME_MESSAGE +
+                " WHERE docid = new." + Entry._ID + "; END");
+        db.execSQL("CREATE TRIGGER " + Entry.TRIGGER_FTS_DELETE + " AFTER DELETE ON " + Entry.TABLE_NAME + " BEGIN" +
+                " DELETE FROM " + Entry.FTS_TABLE_NAME + " WHERE docid = old." + Entry._ID + "; END");
+    }
+
+    /**
+     * Version 6: counts the entries of every mood per day, week and month, so the statistics never scan the entries
+     * The counts are kept up to date by DBAdapter; the days are the day keys, the weeks the key of their Monday and the
+     * months yyyyMM numbers
+     *
+     * @param db The database to migrate
+     */
+    private void upgradeToMoodStats(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + MoodStat.TABLE_NAME + " (" +
+                MoodStat.COLUMN_NAME_PERIOD + " INTEGER NOT NULL," +
+                MoodStat.COLUMN_NAME_PERIOD_KEY + " INTEGER NOT NULL," +
+                MoodStat.COLUMN_NAME_MOOD + " TEXT NOT NULL," +
+                MoodStat.COLUMN_NAME_COUNT + " INTEGER NOT NULL," +
+                "PRIMARY KEY (" + MoodStat.COLUMN_NAME_PERIOD + ", " + MoodStat.COLUMN_NAME_PERIOD_KEY + ", " +
+                MoodStat.COLUMN_NAME_MOOD + ")" +
+                ");");
+
+        String columns = " (" + MoodStat.COLUMN_NAME_PERIOD + ", " + MoodStat.COLUMN_NAME_PERIOD_KEY + ", " +
+                MoodStat.COLUMN_NAME_MOOD + ", " + MoodStat.COLUMN_NAME_COUNT + ")";
+        String days = " FROM " + MoodStat.TABLE_NAME + " WHERE " + MoodStat.COLUMN_NAME_PERIOD + " = " + MoodStats.PERIOD_DAY;
+        db.execSQL("INSERT INTO " + MoodStat.TABLE_NAME + columns +
+                " SELECT " + MoodStats.PERIOD_DAY + ", d." + Day.COLUMN_NAME_DAY_KEY +
+                ", IFNULL(e." + Entry.COLUMN_NAME_MOOD + ", '0'), COUNT(*)" +
+                " FROM " + Entry.TABLE_NAME + " e" +
+                " INNER JOIN " + Day.TABLE_NAME + " d ON d." + Day._ID + " = e." + Entry.COLUMN_NAME_DAY_ID +
+                " GROUP BY 2, 3");
+        //the Monday on or before the day, the same as DateCodec.getWeekKey()
+        String key = MoodStat.COLUMN_NAME_PERIOD_KEY;
+        db.execSQL("INSERT INTO " + MoodStat.TABLE_NAME + columns +
+                " SELECT " + MoodStats.PERIOD_WEEK + ", CAST(strftime('%Y%m%d', date(substr(" + key + ", 1, 4) || '-' || " +
+                "substr(" + key + ", 5, 2) || '-' || substr(" + key + ", 7, 2), '-6 days', 'weekday 1')) AS INTEGER)" +
+                ", " + MoodStat.COLUMN_NAME_MOOD + ", SUM(" + MoodStat.COLUMN_NAME_COUNT + ")" + days +
+                " GROUP BY 2, 3");
+        db.execSQL("INSERT INTO " + MoodStat.TABLE_NAME + columns +
+                " SELECT " + MoodStats.PERIOD_MONTH + ", " + key + " / 100" +
+                ", " + MoodStat.COLUMN_NAME_MOOD + ", SUM(" + MoodStat.COLUMN_NAME_COUNT + ")" + days +
+                " GROUP BY 2, 3");
+    }
+
+    /**
+     * Version 7: stores the moods as the integer codes of Mood instead of their "moodN" names
+     * The entries get a new column and lose the text, the statistics are rebuilt with the codes
+     *
+     * @param db The database to migrate
+     */
+    private void upgradeToMoodCodes(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + Entry.TABLE_NAME + " ADD COLUMN " + Entry.COLUMN_NAME_MOOD_CODE +
+                " INTEGER NOT NULL DEFAULT " + Mood.NONE);
+        db.execSQL("UPDATE " + Entry.TABLE_NAME + " SET " +
+                Entry.COLUMN_NAME_MOOD_CODE + " = " + toMoodCode(Entry.COLUMN_NAME_MOOD) + ", " +
+                Entry.COLUMN_NAME_MOOD + " = NULL");
+
+        String old = MoodStat.TABLE_NAME + "_old";
+        db.execSQL("ALTER TABLE " + MoodStat.TABLE_NAME + " RENAME TO " + old);
+        db.execSQL("CREATE TABLE " + MoodStat.TABLE_NAME + " (" +
+                MoodStat.COLUMN_NAME_PERIOD + " INTEGER NOT NULL," +
+                MoodStat.COLUMN_NAME_PERIOD_KEY + " INTEGER NOT NULL," +
+                MoodStat.COLUMN_NAME_MOOD + " INTEGER NOT NULL," +
+                MoodStat.COLUMN_NAME_COUNT + " INTEGER NOT NULL," +
+                "PRIMARY KEY (" + MoodStat.COLUMN_NAME_PERIOD + ", " + MoodStat.COLUMN_NAME_PERIOD_KEY + ", " +
+                MoodStat.COLUMN_NAME_MOOD + ")" +
+                ");");
+        //unknown names become NONE, so they are summed together
+        db.execSQL("INSERT INTO " + MoodStat.TABLE_NAME + " (" + MoodStat.COLUMN_NAME_PERIOD + ", " +
+                MoodStat.COLUMN_NAME_PERIOD_KEY + ", " + MoodStat.COLUMN_NAME_MOOD + ", " + MoodStat.COLUMN_NAME_COUNT + ")" +
+                " SELECT " + MoodStat.COLUMN_NAME_PERIOD + ", " + MoodStat.COLUMN_NAME_PERIOD_KEY + ", " +
+                toMoodCode(MoodStat.COLUMN_NAME_MOOD) + ", SUM(" + MoodStat.COLUMN_NAME_COUNT + ")" +
+                " FROM " + old + " GROUP BY 1, 2, 3");
+        db.execSQL("DROP TABLE " + old);
+    }
+
+    /**
+     * Returns the SQL that converts a "moodN" name to its code, anything else is NONE
+     *
+     * @param column The column with the name
+     * @return The expression
+     */
+    private static String toMoodCode(String column) {
+        String number = "CAST(substr(" + column + ", 5) AS INTEGER)";
+        return "(CASE WHEN " + column + " GLOB 'mood[0-9]*' AND " + number + " BETWEEN 1 AND " + Mood.COUNT +
+                " THEN " + number + " ELSE " + Mood.NONE + " END)";
+    }
+
+    /**
+     * Replaces a table with a new definition, keeping the rows, their ids and the AUTOINCREMENT counter
+     *
+     * @param db      The database to migrate
+     * @param table   The table to replace
+     * @param columns The columns to copy, they must exist in both definitions
+     * @param create  The CREATE TABLE statement of the new definition, with the same table name
+     */
+    private void rebuildTable(SQLiteDatabase db, String table, String columns, String create) {
+        String old = table + "_old";
+        long sequence = -1;
+        Cursor c = db.rawQuery("SELECT seq FROM sqlite_sequence WHERE name = ?", new String[]{table});
+        if (c.moveToFirst()) {
+            sequence = c.getLong(0);
+        }
+        c.close();
+
+        db.execSQL("ALTER TABLE " + table + " RENAME TO " + old);
+        db.execSQL(create);
+        db.execSQL("INSERT INTO " + table + " (" + columns + ") SELECT " + columns + " FROM " + old);
+        db.execSQL("DROP TABLE " + old);
+
+        // ids of deleted rows must not be given again
+        if (sequence != -1) {
+            db.execSQL("UPDATE sqlite_sequence SET seq = ? WHERE name = ? AND seq < ?",
+                    new Object[]{sequence, table, sequence});
+        }
+    }
+
+    /**
+     * Converts the yyyyMMddHHmmss dates of a table to milliseconds, reading the rows in batches by id
+     *
+     * @param db    The database to migrate
+     * @param table A table with the columns _id, created and tz_offset
+     */
+    private void convertCreated(SQLiteDatabase db, String table) {
+        String select = "SELECT _id, created FROM " + table + " WHERE _id > ? ORDER BY _id LIMIT " + MIGRATION_BATCH;
+        SQLiteStatement update = db.compileStatement("UPDATE " + table + " SET created = ?, tz_offset = ? WHERE _id = ?");
+
+        long lastId = 0;
+        int read;
+        do {
+            Cursor c = db.rawQuery(select, new String[]{Long.toString(lastId)});
+            read = c.getCount();
+            while (c.moveToNext()) {
+                lastId = c.getLong(0);
+                long created;
+                try {
+                    created = DateCodec.parseDatabase(c.getString(1));
+                } catch (ParseException e) {
+                    // never written by the app, there's no date to keep
+                    Log.w("DataBaseHelper", "Invalid date in " + table + " row " + lastId, e);
+                    created = 0;
+                }
+
+                update.bindLong(1, created);
+                update.bindLong(2, DateCodec.getOffset(created));
+                update.bindLong(3, lastId);
+                update.execute();
+            }
+            c.close();
+        } while (read == MIGRATION_BATCH);
+
+        update.close();
     }
 }
@@ -0,0 +1,217 @@
+package net.analogyc.wordiary.database;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+
+import java.util.ArrayList;
+
+/**
+ * Process-wide owner of the database connection
+ * Every DBAdapter shares the same helper and connection, which is closed only when the last user releases it
+ */
+public class DataBaseManager {
+
+    private static DataBaseManager sInstance;
+
+    private final DataBaseHelper mDbHelper;
+    private SQLiteDatabase mDatabase;
+    private int mOpenCounter;
+
+    // only touched on the UI thread
+    private final ArrayList<DataChangeListener> mListeners = new ArrayList<DataChangeListener>();
+    private final Handler mHandler;
+
+    // the grace period is read once and then only when the preference changes
+    private final SharedPreferences mPreferences;
+    private volatile long mGracePeriod;
+    private final SharedPreferences.OnSharedPreferenceChangeListener mPreferenceListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences preferences, String key) {
+                    if ("grace_period".equals(key)) {
+                        mGracePeriod = readGracePeriod(preferences);
+                    }
+                }
+            };
+
+    private DataBaseManager(Context context) {
+        mDbHelper = new DataBaseHelper(context);
+        mHandler = new Handler(Looper.getMainLooper());
+
+        mPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+        mGracePeriod = readGracePeriod(mPreferences);
+        // the preferences keep only a weak reference to the listener, the field keeps it alive
+        mPreferences.registerOnSharedPreferenceChangeListener(mPreferenceListener);
+    }
+
+    /**
+     * Returns the only instance, bound to the application context so no activity gets leaked
+     *
+     * @param context Any context
+     * @return The manager
+     */
+    public static synchronized DataBaseManager getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new DataBaseManager(context.getApplicationContext());
+        }
+
+        return sInstance;
+    }
+
+    /**
+     * Returns the shared writable connection, opening it if nobody is using it
+     * Every call must be balanced by a call to closeDatabase()
+     *
+     * @return The open database
+     */
+    public synchronized SQLiteDatabase openDatabase() {
+        if (mOpenCounter++ == 0 || mDatabase == null || !mDatabase.isOpen()) {
+            mDatabase = mDbHelper.getWritableDatabase();
+        }
+
+        return mDatabase;
+    }
+
+    /**
+     * Releases the connection, it's actually closed only when there are no more users
+     */
+    public synchronized void closeDatabase() {
+        if (mOpenCounter <= 0) {
+            return;
+        }
+
+        if (--mOpenCounter == 0 && mDatabase != null) {
+            mDatabase.close();
+            mDatabase = null;
+        }
+    }
+
+    /**
+     * Returns how long after their creation the entries can be modified, can be called from any thread
+     *
+     * @return The grace period in milliseconds
+     */
+    public long getGracePeriod() {
+        return mGracePeriod;
+    }
+
+    private static long readGracePeriod(SharedPreferences preferences) {
+        int hours;
+        try {
+            hours = Integer.parseInt(preferences.getString("grace_period", "1"));
+        } catch (NumberFormatException e) {
+            // the preference has been left empty
+            hours = 1;
+        }
+        return hours * 60L * 60 * 1000;
+    }
+
+    /**
+     * Starts delivering the changes to the listener, must be called on the UI thread
+     *
+     * @param listener The listener
+     */
+    public void addChangeListener(DataChangeListener listener) {
+        if (!mListeners.contains(listener)) {
+            mListeners.add(listener);
+        }
+    }
+
+    /**
+     * Stops delivering the changes to the listener, must be called on the UI thread
+     *
+     * @param listener The listener
+     */
+    public void removeChangeListener(DataChangeListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Delivers a change to every listener on the UI thread, can be called from any thread
+     *
+     * @param change Calls the right method of the listener
+     */
+    private void notifyChange(final Change change) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // a listener might unregister itself while handling the change
+                DataChangeListener[] listeners = mListeners.toArray(new DataChangeListener[mListeners.size()]);
+                for (DataChangeListener listener : listeners) {
+                    change.deliver(listener);
+                }
+            }
+        });
+    }
+
+    private interface Change {
+        public void deliver(DataChangeListener listener);
+    }
+
+    void notifyDayAdded(final int dayId, final String filename, final long created, final int dayKey) {
+        notifyChange(new Change() {
+            @Override
+            public void deliver(DataChangeListener listener) {
+                listener.onDayAdded(dayId, filename, created, dayKey);
+            }
+        });
+    }
+
+    void notifyDayDeleted(final int dayId) {
+        notifyChange(new Change() {
+            @Override
+            public void deliver(DataChangeListener listener) {
+                listener.onDayDeleted(dayId);
+            }
+        });
+    }
+
+    void notifyPhotoChanged(final int dayId, final String filename) {
+        notifyChange(new Change() {
+            @Override
+            public void deliver(DataChangeListener listener) {
+                listener.onPhotoChanged(dayId, filename);
+            }
+        });
+    }
+
+    void notifyEntryAdded(final int dayId, final int entryId, final String message, final int mood, final long created) {
+        notifyChange(new Change() {
+            @Override
+            public void deliver(DataChangeListener listener) {
+                listener.onEntryAdded(dayId, entryId, message, mood, created);
+            }
+        });
+    }
+
+    void notifyEntryDeleted(final int dayId, final int entryId) {
+        notifyChange(new Change() {
+            @Override
+            public void deliver(DataChangeListener listener) {
+                listener.onEntryDeleted(dayId, entryId);
+            }
+        });
+    }
+
+    void notifyMoodChanged(final int dayId, final int entryId, final int mood) {
+        notifyChange(new Change() {
+            @Override
+            public void deliver(DataChangeListener listener) {
+                listener.onMoodChanged(dayId, entryId, mood);
+            }
+        });
+    }
+
+    void notifyMessageChanged(final int dayId, final int entryId, final String message) {
+        notifyChange(new Change() {
+            @Override
+            public void deliver(DataChangeListener listener) {
+                listener.onMessageChanged(dayId, entryId, message);
+            }
+        });
+    }
+}
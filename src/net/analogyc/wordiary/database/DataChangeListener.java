@@ -0,0 +1,70 @@
+package net.analogyc.wordiary.database;
+
+/**
+ * Receives the changes made through any DBAdapter, on the UI thread
+ * Register it with DataBaseManager.addChangeListener()
+ */
+public interface DataChangeListener {
+
+    /**
+     * A new day has been created
+     *
+     * @param dayId    the day id
+     * @param filename the photo, or an empty string
+     * @param created  the creation date in milliseconds
+     * @param dayKey   the day as a yyyyMMdd number
+     */
+    public void onDayAdded(int dayId, String filename, long created, int dayKey);
+
+    /**
+     * A day has been deleted
+     *
+     * @param dayId the day id
+     */
+    public void onDayDeleted(int dayId);
+
+    /**
+     * The photo of a day has been set or removed
+     *
+     * @param dayId    the day id
+     * @param filename the photo, or an empty string
+     */
+    public void onPhotoChanged(int dayId, String filename);
+
+    /**
+     * A new entry has been added
+     *
+     * @param dayId   the day id
+     * @param entryId the entry id
+     * @param message the message
+     * @param mood    the mood code
+     * @param created the creation date in milliseconds
+     */
+    public void onEntryAdded(int dayId, int entryId, String message, int mood, long created);
+
+    /**
+     * An entry has been deleted
+     *
+     * @param dayId   the day id
+     * @param entryId the entry id
+     */
+    public void onEntryDeleted(int dayId, int entryId);
+
+    /**
+     * The mood of an entry has been changed
+     *
+     * @param dayId   the day id
+     * @param entryId the entry id
+     * @param mood    the new mood code
+     */
+    public void onMoodChanged(int dayId, int entryId, int mood);
+
+    /**
+     * The message of an entry has been changed
+     *
+     * @param dayId   the day id
+     * @param entryId the entry id
+     * @param message the new message
+     */
+    public void onMessageChanged(int dayId, int entryId, String message);
+}
@@ -9,4 +9,10 @@ public class Day {
     public static final String COLUMN_NAME_FILENAME = "filename";
 
     public static final String COLUMN_NAME_CREATED = "created";
+
+    public static final String COLUMN_NAME_DAY_KEY = "day_key";
+
+    public static final String COLUMN_NAME_TZ_OFFSET = "tz_offset";
+
+    public static final String INDEX_DAY_KEY = "day_day_key_idx";
 }
@@ -11,8 +11,23 @@ public class Entry {
 
     public static final String COLUMN_NAME_MESSAGE = "message";
 
+    // the mood as text, only read by the migrations
     public static final String COLUMN_NAME_MOOD = "mood";
 
+    public static final String COLUMN_NAME_MOOD_CODE = "mood_code";
+
     public static final String COLUMN_NAME_CREATED = "created";
 
+    public static final String COLUMN_NAME_TZ_OFFSET = "tz_offset";
+
+    public static final String INDEX_DAY_ID = "entries_day_id_idx";
+
+    public static final String FTS_TABLE_NAME = "entries_fts";
+
+    public static final String TRIGGER_FTS_INSERT = "entries_fts_insert";
+
+    public static final String TRIGGER_FTS_UPDATE = "entries_fts_update";
+
+    public static final String TRIGGER_FTS_DELETE = "entries_fts_delete";
+
 }
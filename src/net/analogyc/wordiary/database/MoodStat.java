@@ -0,0 +1,14 @@
+package net.analogyc.wordiary.database;
+
+public class MoodStat {
+
+    public static final String TABLE_NAME = "mood_stats";
+
+    public static final String COLUMN_NAME_PERIOD = "period";
+
+    public static final String COLUMN_NAME_PERIOD_KEY = "period_key";
+
+    public static final String COLUMN_NAME_MOOD = "mood";
+
+    public static final String COLUMN_NAME_COUNT = "count";
+}
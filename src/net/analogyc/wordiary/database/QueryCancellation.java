@@ -0,0 +1,75 @@
+package net.analogyc.wordiary.database;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.os.CancellationSignal;
+
+/**
+ * Lets the UI thread cancel a query that is queued or running on the worker
+ * A queued query just checks isCancelled() before starting; from Jelly Bean a running query is interrupted through a
+ * CancellationSignal, on older versions it runs to its end and its result is ignored
+ */
+public class QueryCancellation {
+
+    private volatile boolean mCancelled;
+    // a CancellationSignal, only on Jelly Bean and later
+    private final Object mSignal;
+
+    public QueryCancellation() {
+        mSignal = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN ? JellyBean.createSignal() : null;
+    }
+
+    /**
+     * Cancels the query, can be called from any thread
+     */
+    public void cancel() {
+        mCancelled = true;
+        if (mSignal != null) {
+            JellyBean.cancel(mSignal);
+        }
+    }
+
+    /**
+     * Returns true if the query has been cancelled
+     */
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Runs a query that is interrupted if this gets cancelled
+     * When that happens the query throws a RuntimeException, check isCancelled() to know why it failed
+     *
+     * @param db   the database
+     * @param sql  the query
+     * @param args the arguments of the query
+     * @return the cursor
+     */
+    Cursor rawQuery(SQLiteDatabase db, String sql, String[] args) {
+        if (mSignal != null) {
+            return JellyBean.rawQuery(db, sql, args, mSignal);
+        }
+        return db.rawQuery(sql, args);
+    }
+
+    /**
+     * Keeps the references to the new classes out of QueryCancellation, so it loads on every version
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static class JellyBean {
+
+        static Object createSignal() {
+            return new CancellationSignal();
+        }
+
+        static void cancel(Object signal) {
+            ((CancellationSignal) signal).cancel();
+        }
+
+        static Cursor rawQuery(SQLiteDatabase db, String sql, String[] args, Object signal) {
+            return db.rawQuery(sql, args, (CancellationSignal) signal);
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package net.analogyc.wordiary.models;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+/**
+ * Mutable bitmaps that nobody uses anymore, handed out again instead of allocating new pixels
+ * The bitmaps are grouped by their size in bytes: before KitKat a bitmap is only reused with the very same
+ * dimensions, from KitKat it's reconfigured to any size that fits. Bitmaps that can be shown are counted with
+ * retain() and release(), and they are pooled when the last user releases them.
+ */
+public class BitmapPool {
+
+    // from KitKat, a pooled bitmap can be used for a smaller one up to this ratio of wasted bytes
+    private static final int MAX_WASTE = 2;
+
+    private static BitmapPool sInstance;
+
+    private final long mMaxSize;
+    private long mSize;
+    // the pooled bitmaps by allocated bytes
+    private final TreeMap<Integer, ArrayList<Bitmap>> mBySize = new TreeMap<Integer, ArrayList<Bitmap>>();
+    // the users of the bitmaps that might be on screen: memory caches, views and pending deliveries
+    private final WeakHashMap<Bitmap, int[]> mReferences = new WeakHashMap<Bitmap, int[]>();
+
+    private BitmapPool(long maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Returns the pool of the process
+     *
+     * @return The pool
+     */
+    public static synchronized BitmapPool getInstance() {
+        if (sInstance == null) {
+            sInstance = new BitmapPool(Runtime.getRuntime().maxMemory() / 16);
+        }
+
+        return sInstance;
+    }
+
+    /**
+     * Takes a bitmap out of the pool, erased to transparent
+     *
+     * @param width  The width
+     * @param height The height
+     * @param config The configuration
+     * @return A mutable bitmap with these dimensions, or null if there's none to reuse
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        int bytes = width * height * getBytesPerPixel(config);
+        Bitmap bitmap = null;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            SortedMap<Integer, ArrayList<Bitmap>> larger = mBySize.tailMap(bytes);
+            if (!larger.isEmpty() && larger.firstKey() <= bytes * MAX_WASTE) {
+                bitmap = take(larger.firstKey(), larger.get(larger.firstKey()), -1);
+                KitKat.reconfigure(bitmap, width, height, config);
+            }
+        } else {
+            ArrayList<Bitmap> same = mBySize.get(bytes);
+            if (same != null) {
+                for (int i = same.size() - 1; i >= 0; i--) {
+                    Bitmap candidate = same.get(i);
+                    if (candidate.getWidth() == width && candidate.getHeight() == height
+                            && candidate.getConfig() == config) {
+                        bitmap = take(bytes, same, i);
+                        break;
+                    }
+                }
+            }
+        }
+
+        if (bitmap != null) {
+            bitmap.eraseColor(Color.TRANSPARENT);
+        }
+        return bitmap;
+    }
+
+    private Bitmap take(int bytes, ArrayList<Bitmap> bitmaps, int position) {
+        Bitmap bitmap = bitmaps.remove(position < 0 ? bitmaps.size() - 1 : position);
+        if (bitmaps.isEmpty()) {
+            mBySize.remove(bytes);
+        }
+        mSize -= bytes;
+        return bitmap;
+    }
+
+    /**
+     * Takes a bitmap out of the pool, or creates it
+     *
+     * @param width  The width
+     * @param height The height
+     * @param config The configuration
+     * @return A mutable and transparent bitmap
+     */
+    public Bitmap obtain(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = get(width, height, config);
+        return bitmap != null ? bitmap : Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * Gives a bitmap to the pool, it's ignored if it can't be reused, if somebody retains it or if the pool is full
+     *
+     * @param bitmap The bitmap, it must not be used anymore by the caller
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || !bitmap.isMutable() || bitmap.isRecycled() || mReferences.containsKey(bitmap)) {
+            return;
+        }
+
+        int bytes = getAllocatedBytes(bitmap);
+        if (mSize + bytes > mMaxSize) {
+            return;
+        }
+
+        ArrayList<Bitmap> bitmaps = mBySize.get(bytes);
+        if (bitmaps == null) {
+            bitmaps = new ArrayList<Bitmap>(4);
+            mBySize.put(bytes, bitmaps);
+        } else if (bitmaps.contains(bitmap)) {
+            return;
+        }
+        bitmaps.add(bitmap);
+        mSize += bytes;
+    }
+
+    /**
+     * Marks a bitmap as used, so it won't be pooled until it is released as many times
+     * A bitmap found in the pool is taken back out of it
+     *
+     * @param bitmap The bitmap, can be null
+     */
+    public synchronized void retain(Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+
+        int[] count = mReferences.get(bitmap);
+        if (count == null) {
+            ArrayList<Bitmap> bitmaps = mBySize.get(getAllocatedBytes(bitmap));
+            if (bitmaps != null) {
+                int position = bitmaps.indexOf(bitmap);
+                if (position >= 0) {
+                    take(getAllocatedBytes(bitmap), bitmaps, position);
+                }
+            }
+            mReferences.put(bitmap, new int[]{1});
+        } else {
+            count[0]++;
+        }
+    }
+
+    /**
+     * Drops a use of a bitmap, the last one puts it in the pool
+     *
+     * @param bitmap The bitmap, can be null; bitmaps that were never retained are ignored
+     */
+    public synchronized void release(Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+
+        int[] count = mReferences.get(bitmap);
+        if (count != null && --count[0] == 0) {
+            mReferences.remove(bitmap);
+            put(bitmap);
+        }
+    }
+
+    /**
+     * Decodes a file, into a pooled bitmap when the platform allows it
+     * Before KitKat a decoded bitmap can only be reused with the same size and no sampling, so it's never tried
+     *
+     * @param path    The path of the file
+     * @param options The options of the decode; outWidth and outHeight must hold the size of the file, if known
+     * @return The bitmap, or null if the file can't be decoded
+     */
+    public Bitmap decodeFile(String path, BitmapFactory.Options options) {
+        Bitmap reused = prepareDecode(options, options.outWidth, options.outHeight);
+        if (reused != null) {
+            try {
+                Bitmap bitmap = BitmapFactory.decodeFile(path, options);
+                if (bitmap != null) {
+                    return bitmap;
+                }
+            } catch (IllegalArgumentException e) {
+                //the decoder refused it, decode in new pixels
+            }
+            abandonDecode(options, reused);
+        }
+
+        return BitmapFactory.decodeFile(path, options);
+    }
+
+    /**
+     * Sets up the options of a decode so its output is mutable and, from KitKat, drawn in a pooled bitmap
+     * If the decode fails with the pooled bitmap, give it back with abandonDecode() and decode again
+     *
+     * @param options The options of the decode, inSampleSize and inPreferredConfig already set
+     * @param width   The width of the image or region before sampling, 0 if unknown
+     * @param height  The height of the image or region before sampling, 0 if unknown
+     * @return The pooled bitmap set as inBitmap, or null if there's none
+     */
+    public Bitmap prepareDecode(BitmapFactory.Options options, int width, int height) {
+        options.inJustDecodeBounds = false;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            // so it can be pooled when it's released
+            Honeycomb.setMutable(options);
+        }
+
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT || width <= 0 || height <= 0) {
+            return null;
+        }
+
+        int sample = Math.max(1, options.inSampleSize);
+        Bitmap.Config config = options.inPreferredConfig != null ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+        Bitmap reused = get((width + sample - 1) / sample, (height + sample - 1) / sample, config);
+        if (reused != null) {
+            KitKat.setInBitmap(options, reused);
+        }
+        return reused;
+    }
+
+    /**
+     * Takes the pooled bitmap out of the options of a failed decode and puts it back in the pool
+     *
+     * @param options The options given to prepareDecode()
+     * @param reused  The bitmap it returned
+     */
+    public void abandonDecode(BitmapFactory.Options options, Bitmap reused) {
+        KitKat.setInBitmap(options, null);
+        put(reused);
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        return 4;
+    }
+
+    private static int getAllocatedBytes(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return KitKat.getAllocationByteCount(bitmap);
+        }
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * Keeps the references to the new fields out of BitmapPool, so it loads on every version
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static class Honeycomb {
+
+        static void setMutable(BitmapFactory.Options options) {
+            options.inMutable = true;
+        }
+    }
+
+    /**
+     * Keeps the references to the new methods out of BitmapPool, so it loads on every version
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static class KitKat {
+
+        static void reconfigure(Bitmap bitmap, int width, int height, Bitmap.Config config) {
+            bitmap.reconfigure(width, height, config);
+        }
+
+        static void setInBitmap(BitmapFactory.Options options, Bitmap bitmap) {
+            options.inBitmap = bitmap;
+        }
+
+        static int getAllocationByteCount(Bitmap bitmap) {
+            return bitmap.getAllocationByteCount();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package net.analogyc.wordiary.models;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Shader;
+
+/**
+ * The center crop, the resize and the rounded corners of a thumbnail, drawn in a single pass
+ * The steps are composed into the part of the source to keep and the size of the output, then the source is drawn
+ * once into the output: directly, or through a shader filling a rounded rectangle when the corners are rounded.
+ * An instance keeps its drawing objects, so it must be used by one thread at a time.
+ */
+public class BitmapTransform {
+
+    private boolean mCenterCrop;
+    private int mWidth;
+    private int mHeight;
+    private int mRoundedCorner;
+
+    private final Paint mPaint = new Paint();
+    private final Rect mSource = new Rect();
+    private final Rect mDestination = new Rect();
+    private final RectF mRoundRect = new RectF();
+    private final Matrix mMatrix = new Matrix();
+    private final Canvas mCanvas = new Canvas();
+
+    /**
+     * Sets whether the middle square of the source is kept
+     *
+     * @param centerCrop True to crop the source in a square
+     * @return The current object
+     */
+    public BitmapTransform setCenterCrop(boolean centerCrop) {
+        mCenterCrop = centerCrop;
+        return this;
+    }
+
+    /**
+     * Sets the size of the output
+     *
+     * @param width  The width, 0 to keep the size of the source
+     * @param height The height, 0 to keep the size of the source
+     * @return The current object
+     */
+    public BitmapTransform setSize(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        return this;
+    }
+
+    /**
+     * Sets the radius of the corners
+     *
+     * @param roundedCorner The radius in pixels, 0 for square corners
+     * @return The current object
+     */
+    public BitmapTransform setRoundedCorner(int roundedCorner) {
+        mRoundedCorner = roundedCorner;
+        return this;
+    }
+
+    /**
+     * Draws the transformed source in a pooled bitmap
+     *
+     * @param source The image, it's not modified
+     * @param pool   The pool that gives the output
+     * @return The output, or the source itself if there's nothing to do
+     */
+    public Bitmap apply(Bitmap source, BitmapPool pool) {
+        int sourceWidth = source.getWidth();
+        int sourceHeight = source.getHeight();
+
+        // center crop so it's square and pretty
+        if (mCenterCrop && sourceWidth > sourceHeight) {
+            int left = sourceWidth / 2 - sourceHeight / 2;
+            mSource.set(left, 0, left + sourceHeight, sourceHeight);
+        } else if (mCenterCrop && sourceHeight > sourceWidth) {
+            int top = sourceHeight / 2 - sourceWidth / 2;
+            mSource.set(0, top, sourceWidth, top + sourceWidth);
+        } else {
+            mSource.set(0, 0, sourceWidth, sourceHeight);
+        }
+
+        int width = mWidth > 0 ? mWidth : mSource.width();
+        int height = mHeight > 0 ? mHeight : mSource.height();
+        boolean scaled = width != mSource.width() || height != mSource.height();
+        if (mRoundedCorner == 0 && !scaled && width == sourceWidth && height == sourceHeight) {
+            return source;
+        }
+
+        // an opaque image with square corners takes half the memory, dithered to hide the banding
+        boolean opaque = mRoundedCorner == 0 && !source.hasAlpha();
+        Bitmap output = pool.obtain(width, height, opaque ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888);
+        mCanvas.setBitmap(output);
+        mPaint.reset();
+        mPaint.setFilterBitmap(scaled);
+        mPaint.setDither(opaque);
+
+        if (mRoundedCorner == 0) {
+            mDestination.set(0, 0, width, height);
+            mCanvas.drawBitmap(source, mSource, mDestination, mPaint);
+        } else {
+            // the shader maps the kept part of the source on the output, the round rect clips it
+            BitmapShader shader = new BitmapShader(source, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+            mMatrix.setScale((float) width / mSource.width(), (float) height / mSource.height());
+            mMatrix.preTranslate(-mSource.left, -mSource.top);
+            shader.setLocalMatrix(mMatrix);
+
+            mPaint.setAntiAlias(true);
+            mPaint.setShader(shader);
+            mRoundRect.set(0, 0, width, height);
+            mCanvas.drawRoundRect(mRoundRect, mRoundedCorner, mRoundedCorner, mPaint);
+            mPaint.setShader(null);
+        }
+
+        return output;
+    }
+}
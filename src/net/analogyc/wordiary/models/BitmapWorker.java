@@ -4,15 +4,8 @@ import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Paint;
-import android.graphics.PorterDuff;
-import android.graphics.PorterDuffXfermode;
-import android.graphics.Rect;
-import android.graphics.RectF;
 import android.graphics.drawable.BitmapDrawable;
-import android.os.AsyncTask;
+import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentManager;
@@ -24,6 +17,7 @@ import android.view.Display;
 import android.view.WindowManager;
 import android.widget.ImageView;
 
+import java.io.File;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 
@@ -31,6 +25,17 @@ public class BitmapWorker extends Fragment {
 
     private static final String TAG = "BitmapWorker";
     private LruCache<String, Bitmap> mMemoryCache;
+    // the finished images, kept across restarts of the process
+    private ThumbnailCache mDiskCache;
+    // the pixels of the intermediate images and of the ones evicted from the memory cache
+    private final BitmapPool mBitmapPool = BitmapPool.getInstance();
+    // every decode thread has its own drawing objects
+    private static final ThreadLocal<BitmapTransform> sTransforms = new ThreadLocal<BitmapTransform>() {
+        @Override
+        protected BitmapTransform initialValue() {
+            return new BitmapTransform();
+        }
+    };
 
     private static final int FULL_SIZE_AVATAR = 512;
     private static final int HALF_SIZE_AVATAR = 256;
@@ -51,6 +56,12 @@ public class BitmapWorker extends Fragment {
                 // must do it like this because bitmap.getByteCount was added in API Level 12
                 return bitmap.getRowBytes() * bitmap.getHeight() / 1024;
             }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                // the pixels go back to the pool once no view shows them
+                mBitmapPool.release(oldValue);
+            }
         };
     }
 
@@ -83,6 +94,7 @@ public class BitmapWorker extends Fragment {
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setRetainInstance(true);
+        mDiskCache = ThumbnailCache.getInstance(getActivity());
 
         Display display = ((WindowManager) getActivity().getSystemService(Context.WINDOW_SERVICE)).getDefaultDisplay();
         DisplayMetrics dm = new DisplayMetrics();
@@ -116,10 +128,42 @@ public class BitmapWorker extends Fragment {
      */
     protected void addBitmapToMemoryCache(String key, Bitmap bitmap) {
         if (getBitmapFromMemCache(key) == null) {
+            // released by entryRemoved()
+            mBitmapPool.retain(bitmap);
             mMemoryCache.put(key, bitmap);
         }
     }
 
+    /**
+     * Returns the image associated with a key, retained so it can't be pooled before it's shown
+     *
+     * @param key Unique key for the modified image
+     * @return The modified image, to be released when it's not used anymore
+     */
+    protected Bitmap retainFromMemCache(String key) {
+        // an eviction releases the image under the same lock, so it's either still cached or not found
+        synchronized (mBitmapPool) {
+            Bitmap bitmap = mMemoryCache.get(key);
+            mBitmapPool.retain(bitmap);
+            return bitmap;
+        }
+    }
+
+    /**
+     * Shows an image, releasing the one the view showed before
+     *
+     * @param imageView The view
+     * @param bitmap    The image, it must be retained by the caller if it comes from the caches
+     * @param task      The task that is going to replace the image, or null
+     */
+    protected void showBitmap(ImageView imageView, Bitmap bitmap, BitmapWorkerTask task) {
+        Drawable previous = imageView.getDrawable();
+        imageView.setImageDrawable(new AsyncDrawable(getResources(), bitmap, task));
+        if (previous instanceof AsyncDrawable) {
+            mBitmapPool.release(((AsyncDrawable) previous).getBitmap());
+        }
+    }
+
     /**
      * Returns the image associated with a key
      *
@@ -131,12 +175,35 @@ public class BitmapWorker extends Fragment {
     }
 
     /**
-     * Clears the image from the cache, given the mPath
+     * Clears the images of a file from the cache, whatever their transformation
      *
      * @param path The mPath of the bitmap
      */
-    public void clearBitmapFromMemCache(String prefix, String path) {
-        mMemoryCache.remove(prefix + path);
+    public void clearBitmapFromMemCache(String path) {
+        String prefix = path + '|';
+        for (String key : mMemoryCache.snapshot().keySet()) {
+            if (key.startsWith(prefix)) {
+                mMemoryCache.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Cancels the task of a view and releases its image, so it can be pooled
+     * Call it when the view is thrown away or moved out of sight, the next task on it shows the image again
+     *
+     * @param imageView The view
+     */
+    public void clearView(ImageView imageView) {
+        Drawable drawable = imageView.getDrawable();
+        if (drawable instanceof AsyncDrawable) {
+            BitmapWorkerTask task = ((AsyncDrawable) drawable).getBitmapWorkerTask();
+            if (task != null) {
+                task.cancel();
+            }
+            imageView.setImageDrawable(null);
+            mBitmapPool.release(((AsyncDrawable) drawable).getBitmap());
+        }
     }
 
     /**
@@ -163,7 +230,6 @@ public class BitmapWorker extends Fragment {
         protected boolean mCenterCrop = false;
         protected boolean mHighQuality = true;
         protected int mRoundedCorner;
-        protected String mPrefix = "";
 
         public BitmapWorkerTaskBuilder(ImageView imageView, String path) {
             mImageView = imageView;
@@ -183,7 +249,6 @@ public class BitmapWorker extends Fragment {
             mCenterCrop = b.isCenterCrop();
             mHighQuality = b.isHighQuality();
             mRoundedCorner = b.getRoundedCorner();
-            mPrefix = b.getPrefix();
         }
 
         /**
@@ -316,23 +381,24 @@ public class BitmapWorker extends Fragment {
         }
 
         /**
-         * Set the prefix to use for distinguishing cache
+         * Returns the key of the finished image in the memory cache, decodes with the same key are shared
+         * It holds the transformation, so screens showing the same file in different shapes never mix them
          *
-         * @param prefix
-         * @return The current object
+         * @return The key, starting with the path and '|'
          */
-        public BitmapWorkerTaskBuilder setPrefix(String prefix) {
-            mPrefix = prefix;
-            return this;
+        public String getCacheKey() {
+            return mPath + '|' + mTargetWidth + 'x' + mTargetHeight + '|'
+                    + mCenterCrop + '|' + mHighQuality + '|' + mRoundedCorner;
         }
 
         /**
-         * Gets the prefix to use for distinguishing cache
+         * Returns the key of the finished image in the disk cache, it changes with the file and the transformation
          *
-         * @return The prefix
+         * @param lastModified The modification time of the file
+         * @return The key
          */
-        public String getPrefix() {
-            return mPrefix;
+        public String getDiskCacheKey(long lastModified) {
+            return getCacheKey() + '|' + lastModified;
         }
 
         /**
@@ -340,28 +406,36 @@ public class BitmapWorker extends Fragment {
          */
         public void execute() {
             // stop the previous task if we're going to use this drawable with another Bitmap
+            BitmapWorkerTask oldTask = null;
             if (mImageView.getDrawable() instanceof AsyncDrawable) {
-                BitmapWorkerTask oldTask = ((AsyncDrawable) mImageView.getDrawable()).getBitmapWorkerTask();
+                oldTask = ((AsyncDrawable) mImageView.getDrawable()).getBitmapWorkerTask();
                 if (oldTask != null) {
-                    oldTask.cancel(true);
-
-                    // don't reload the image if it's the same as in the drawable
-                    if (getPath() != null && getPath().equals(oldTask.getBuilderCopy().getPath())) {
-                        BitmapWorkerTask task = new BitmapWorkerTask(mImageView, this);
-                        mImageView.setImageDrawable(new AsyncDrawable(getResources(), task));
-                        task.execute();
-                        return;
-                    }
+                    oldTask.cancel();
                 }
             }
 
+            // an image already in memory needs no task
+            Bitmap cached = getPath() == null ? null : retainFromMemCache(getCacheKey());
+            if (cached != null) {
+                showBitmap(mImageView, cached, null);
+                return;
+            }
+
+            // don't reload the image if it's the same as in the drawable
+            if (oldTask != null && getPath() != null && getPath().equals(oldTask.getBuilderCopy().getPath())) {
+                BitmapWorkerTask task = new BitmapWorkerTask(mImageView, this);
+                showBitmap(mImageView, null, task);
+                task.execute();
+                return;
+            }
+
             Bitmap avatar = mAvatars[getShowDefault() % mAvatars.length];
 
             if (getPath() == null) {
-                mImageView.setImageBitmap(avatar);
+                showBitmap(mImageView, avatar, null);
             } else {
                 BitmapWorkerTask task = new BitmapWorkerTask(mImageView, this);
-                mImageView.setImageDrawable(new AsyncDrawable(getResources(), avatar, task));
+                showBitmap(mImageView, avatar, task);
                 task.execute();
             }
         }
@@ -390,11 +464,12 @@ public class BitmapWorker extends Fragment {
     }
 
     /**
-     * The actual task in charge of editing the image
+     * The actual task in charge of editing the image, run by the DecodeScheduler
      */
-    class BitmapWorkerTask extends AsyncTask<Integer, Void, Bitmap> {
+    class BitmapWorkerTask implements DecodeScheduler.Decoder, DecodeScheduler.Listener {
         private final WeakReference<ImageView> mImageViewReference;
         private final BitmapWorkerTaskBuilder mBwtb;
+        private boolean mCancelled;
 
         public BitmapWorkerTask(ImageView imageView, BitmapWorkerTaskBuilder bwtb) {
             mImageViewReference = new WeakReference<ImageView>(imageView);
@@ -410,107 +485,84 @@ public class BitmapWorker extends Fragment {
             return new BitmapWorkerTaskBuilder(mBwtb);
         }
 
+        /**
+         * Schedules the decode, it's shared with any other task for the same image
+         */
+        public void execute() {
+            DecodeScheduler.submit(mBwtb.getCacheKey(), this, this);
+        }
+
+        /**
+         * Stops the task, the image won't be set; the decode is skipped if no other task waits for it
+         */
+        public void cancel() {
+            mCancelled = true;
+            DecodeScheduler.cancel(mBwtb.getCacheKey(), this);
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
         /**
          * Resize image in background
+         * The image is returned retained, onDelivered() releases it once the views have it
          */
         @Override
-        protected Bitmap doInBackground(Integer... params) {
-            Bitmap image = getBitmapFromMemCache(mBwtb.getPrefix() + mBwtb.getPath());
+        public Bitmap decode() {
+            Bitmap image = retainFromMemCache(mBwtb.getCacheKey());
 
             if (image != null) {
                 return image;
             }
 
-            Bitmap bmp;
+            // the same image might have been prepared before the process was restarted
+            String diskCacheKey = mBwtb.getDiskCacheKey(new File(mBwtb.getPath()).lastModified());
+            image = mDiskCache.get(diskCacheKey);
+            if (image != null) {
+                mBitmapPool.retain(image);
+                addBitmapToMemoryCache(mBwtb.getCacheKey(), image);
+                return image;
+            }
 
-            // just use lower inSampleSize
-            if (mBwtb.getTargetWidth() > 0) {
-                // get the image width and height without loading it in memory
-                BitmapFactory.Options options = new BitmapFactory.Options();
-                options.inJustDecodeBounds = true;
-                BitmapFactory.decodeFile(mBwtb.getPath(), options);
-                int height = options.outHeight;
-                int width = options.outWidth;
-
-                // reduce the amount of data allocated in memory with higher inSampleSize
-                options = new BitmapFactory.Options();
-                options.inSampleSize = 1;
-                if (height > mBwtb.getTargetHeight() && width > mBwtb.getTargetWidth()) {
-                    final int heightRatio = Math.round((float) height / (float) mBwtb.getTargetHeight());
-                    final int widthRatio = Math.round((float) width / (float) mBwtb.getTargetWidth());
-                    options.inSampleSize = heightRatio < widthRatio ? heightRatio : widthRatio;
-                }
+            Bitmap bmp;
 
-                bmp = BitmapFactory.decodeFile(mBwtb.getPath(), options);
-            } else {
-                bmp = BitmapFactory.decodeFile(mBwtb.getPath());
-            }
+            // only the pixels the thumbnail needs
+            bmp = PhotoDecoder.decode(mBwtb.getPath(), mBwtb.getTargetWidth(), mBwtb.getTargetHeight(),
+                    mBwtb.isCenterCrop(), mBitmapPool);
 
-            // if the image isn't found, don't set anything, cancel the thread and return null
+            // if the image isn't found, don't set anything
             if (bmp == null) {
-                cancel(true);
                 return null;
             }
 
-            if (mBwtb.isCenterCrop()) {
-                // center crop so it's square and pretty
-                // credits to http://stackoverflow.com/a/6909144/644504
-                // for the solution to "center crop" resize
-                if (bmp.getWidth() >= bmp.getHeight()) {
-                    bmp = Bitmap.createBitmap(
-                            bmp,
-                            bmp.getWidth() / 2 - bmp.getHeight() / 2,
-                            0,
-                            bmp.getHeight(),
-                            bmp.getHeight()
-                    );
-                } else {
-                    bmp = Bitmap.createBitmap(
-                            bmp,
-                            0,
-                            bmp.getHeight() / 2 - bmp.getWidth() / 2,
-                            bmp.getWidth(),
-                            bmp.getWidth()
-                    );
-                }
-            }
-
-            if (mBwtb.getTargetWidth() != 0 && mBwtb.isHighQuality()) {
-                bmp = Bitmap.createScaledBitmap(bmp, mBwtb.getTargetWidth(), mBwtb.getTargetHeight(), true);
-            }
-
-            if (mBwtb.getRoundedCorner() != 0) {
-                bmp = getRoundedCornerBitmap(bmp, mBwtb.getRoundedCorner());
+            // crop, resize and round in a single pass
+            Bitmap output = sTransforms.get()
+                    .setCenterCrop(mBwtb.isCenterCrop())
+                    .setSize(mBwtb.isHighQuality() ? mBwtb.getTargetWidth() : 0,
+                            mBwtb.isHighQuality() ? mBwtb.getTargetHeight() : 0)
+                    .setRoundedCorner(mBwtb.getRoundedCorner())
+                    .apply(bmp, mBitmapPool);
+            if (output != bmp) {
+                mBitmapPool.put(bmp);
+                bmp = output;
             }
 
+            mDiskCache.put(diskCacheKey, bmp);
+            // even if every view has moved on meanwhile, the image is ready when they come back
+            mBitmapPool.retain(bmp);
+            addBitmapToMemoryCache(mBwtb.getCacheKey(), bmp);
             return bmp;
         }
 
         /**
-         * Applies rounded corners
-         * Sets background color to black and blurs image borders
-         * Inspired by: http://stackoverflow.com/a/3292810/644504
+         * Releases the image returned by decode(), the views that show it have retained it
          *
-         * @param bitmap
-         * @return Bitmap with rounded corners
+         * @param bitmap The image
          */
-        public Bitmap getRoundedCornerBitmap(Bitmap bitmap, int roundedPixels) {
-            Bitmap output = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(), Bitmap.Config.ARGB_8888);
-            Canvas canvas = new Canvas(output);
-
-            Paint paint;
-            RectF rectF;
-            Rect rect = new Rect(0, 0, bitmap.getWidth(), bitmap.getHeight());
-            rectF = new RectF(rect);
-
-            paint = new Paint();
-            paint.setAntiAlias(true);
-            paint.setColor(Color.BLACK);
-            canvas.drawRoundRect(rectF, roundedPixels, roundedPixels, paint);
-            paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC_IN));
-            canvas.drawBitmap(bitmap, rect, rect, paint);
-
-            return output;
+        @Override
+        public void onDelivered(Bitmap bitmap) {
+            mBitmapPool.release(bitmap);
         }
 
         /**
@@ -519,13 +571,14 @@ public class BitmapWorker extends Fragment {
          * @param bitmap
          */
         @Override
-        protected void onPostExecute(Bitmap bitmap) {
-            super.onPostExecute(bitmap);
+        public void onDecoded(Bitmap bitmap) {
             if (!isCancelled() && isAdded() && mImageViewReference != null && bitmap != null) {
-                addBitmapToMemoryCache(mBwtb.getPrefix() + mBwtb.getPath(), bitmap);
+                // the decode might have been shared with the worker of another activity
+                addBitmapToMemoryCache(mBwtb.getCacheKey(), bitmap);
                 final ImageView imageView = mImageViewReference.get();
                 if (imageView != null) {
-                    imageView.setImageDrawable(new AsyncDrawable(getResources(), bitmap, this));
+                    mBitmapPool.retain(bitmap);
+                    showBitmap(imageView, bitmap, this);
                 }
             }
         }
@@ -0,0 +1,199 @@
+package net.analogyc.wordiary.models;
+
+import android.util.SparseArray;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Converts and formats the dates of the database, stored as epoch milliseconds and yyyyMMdd day keys
+ * The old text layout (DateFormats.DATABASE) is parsed by hand; display formatters are cached per thread, since
+ * SimpleDateFormat isn't thread safe, and the day labels shown in the lists are memoized
+ */
+public final class DateCodec {
+
+    private static final int DATABASE_LENGTH = 14;
+    private static final int MAX_DAY_LABELS = 512;
+
+    // a calendar per thread, reused for every conversion
+    private static final ThreadLocal<Calendar> sCalendar = new ThreadLocal<Calendar>() {
+        @Override
+        protected Calendar initialValue() {
+            return new GregorianCalendar();
+        }
+    };
+
+    // display formatters per thread, by pattern
+    private static final ThreadLocal<HashMap<String, CachedFormat>> sFormats = new ThreadLocal<HashMap<String, CachedFormat>>() {
+        @Override
+        protected HashMap<String, CachedFormat> initialValue() {
+            return new HashMap<String, CachedFormat>();
+        }
+    };
+
+    // day labels (DateFormats.IMAGE) by yyyyMMdd key
+    private static final SparseArray<String> sDayLabels = new SparseArray<String>();
+
+    private static class CachedFormat {
+        private final Locale mLocale;
+        private final SimpleDateFormat mFormat;
+
+        private CachedFormat(String pattern, Locale locale) {
+            mLocale = locale;
+            mFormat = new SimpleDateFormat(pattern, locale);
+        }
+    }
+
+    private DateCodec() {
+    }
+
+    /**
+     * Parses a date in DateFormats.DATABASE, without creating any object
+     *
+     * @param created The date as stored in the database
+     * @return The date in milliseconds
+     * @throws ParseException If the string isn't a valid date
+     */
+    public static long parseDatabase(String created) throws ParseException {
+        if (created == null || created.length() != DATABASE_LENGTH) {
+            throw new ParseException("Unparseable date: " + created, 0);
+        }
+
+        Calendar calendar = sCalendar.get();
+        calendar.clear();
+        calendar.set(digits(created, 0, 4), digits(created, 4, 2) - 1, digits(created, 6, 2),
+                digits(created, 8, 2), digits(created, 10, 2), digits(created, 12, 2));
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Returns the day of a date
+     *
+     * @param millis The date in milliseconds
+     * @return The day as a yyyyMMdd number
+     */
+    public static int getDayKey(long millis) {
+        Calendar calendar = sCalendar.get();
+        calendar.setTimeInMillis(millis);
+        return toDayKey(calendar);
+    }
+
+    /**
+     * Returns the week of a day, as the key of its Monday
+     *
+     * @param dayKey The day as a yyyyMMdd number
+     * @return The Monday on or before the day, as a yyyyMMdd number
+     */
+    public static int getWeekKey(int dayKey) {
+        Calendar calendar = toCalendar(dayKey);
+        //Monday is 2 and Sunday is 1
+        int back = (calendar.get(Calendar.DAY_OF_WEEK) + 5) % 7;
+        calendar.add(Calendar.DAY_OF_MONTH, -back);
+        return toDayKey(calendar);
+    }
+
+    /**
+     * Moves a day forwards or backwards
+     *
+     * @param dayKey The day as a yyyyMMdd number
+     * @param days   The number of days to add, can be negative
+     * @return The new day as a yyyyMMdd number
+     */
+    public static int addDays(int dayKey, int days) {
+        Calendar calendar = toCalendar(dayKey);
+        calendar.add(Calendar.DAY_OF_MONTH, days);
+        return toDayKey(calendar);
+    }
+
+    private static Calendar toCalendar(int dayKey) {
+        Calendar calendar = sCalendar.get();
+        calendar.clear();
+        calendar.set(dayKey / 10000, dayKey / 100 % 100 - 1, dayKey % 100);
+        return calendar;
+    }
+
+    private static int toDayKey(Calendar calendar) {
+        return calendar.get(Calendar.YEAR) * 10000 + (calendar.get(Calendar.MONTH) + 1) * 100
+                + calendar.get(Calendar.DAY_OF_MONTH);
+    }
+
+    /**
+     * Returns the offset of the current time zone at the given date, stored together with the dates
+     *
+     * @param millis The date in milliseconds
+     * @return The offset from UTC in milliseconds
+     */
+    public static int getOffset(long millis) {
+        return TimeZone.getDefault().getOffset(millis);
+    }
+
+    /**
+     * Formats a date for display, with a formatter cached for the current thread
+     *
+     * @param pattern One of DateFormats
+     * @param locale  The locale of the formatter
+     * @param millis  The date in milliseconds
+     * @return The formatted date
+     */
+    public static String format(String pattern, Locale locale, long millis) {
+        HashMap<String, CachedFormat> formats = sFormats.get();
+        CachedFormat format = formats.get(pattern);
+        if (format == null || !format.mLocale.equals(locale)) {
+            format = new CachedFormat(pattern, locale);
+            formats.put(pattern, format);
+        }
+        return format.mFormat.format(millis);
+    }
+
+    /**
+     * Returns the label shown for a day (DateFormats.IMAGE), labels are formatted only once
+     *
+     * @param dayKey The day as a yyyyMMdd number
+     * @return The formatted day
+     */
+    public static String getDayLabel(int dayKey) {
+        synchronized (sDayLabels) {
+            String label = sDayLabels.get(dayKey);
+            if (label == null) {
+                if (sDayLabels.size() >= MAX_DAY_LABELS) {
+                    sDayLabels.clear();
+                }
+
+                // dd.MM.yyyy has no locale dependent parts
+                char[] chars = new char[10];
+                write(chars, 0, 2, dayKey % 100);
+                chars[2] = '.';
+                write(chars, 3, 2, dayKey / 100 % 100);
+                chars[5] = '.';
+                write(chars, 6, 4, dayKey / 10000);
+                label = new String(chars);
+                sDayLabels.put(dayKey, label);
+            }
+            return label;
+        }
+    }
+
+    private static int digits(String string, int start, int count) throws ParseException {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = string.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new ParseException("Unparseable date: " + string, i);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static void write(char[] chars, int start, int count, int value) {
+        for (int i = start + count - 1; i >= start; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package net.analogyc.wordiary.models;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the image decodes of the whole process on a small pool of background threads
+ * The most recent request runs first, so the rows on screen win over the ones already scrolled past. Requests with
+ * the same key share one decode, and a request nobody waits for anymore is dropped from the queue.
+ */
+public class DecodeScheduler {
+
+    /**
+     * Builds the image, it's run on a pool thread
+     */
+    public interface Decoder {
+
+        /**
+         * @return The image, or null if it couldn't be built
+         */
+        public Bitmap decode();
+
+        /**
+         * Called on the UI thread after the image has been given to the listeners
+         *
+         * @param bitmap The image returned by decode(), never null
+         */
+        public void onDelivered(Bitmap bitmap);
+    }
+
+    /**
+     * Receives the image on the UI thread
+     */
+    public interface Listener {
+
+        /**
+         * Called on the UI thread, unless the listener was cancelled before the decode ended
+         * A listener cancelled after the decode ended is still called and should ignore the image
+         *
+         * @param bitmap The image, never null
+         */
+        public void onDecoded(Bitmap bitmap);
+    }
+
+    // every decode holds a sampled source image, more threads than this only cost memory
+    private static final int MAX_THREADS = 4;
+    private static final int THREADS = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), MAX_THREADS));
+
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+    private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(THREADS, THREADS, 0L,
+            TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+                private int mCount;
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, "DecodeScheduler #" + (++mCount));
+                }
+            });
+
+    // requests that are queued or running, by key
+    private static final HashMap<String, Request> sInFlight = new HashMap<String, Request>();
+    private static long sSequence;
+
+    private DecodeScheduler() {
+    }
+
+    /**
+     * Schedules a decode, if one with the same key is pending the listener is attached to it and moved to the front
+     *
+     * @param key      Identifies the image with its transformation
+     * @param decoder  Builds the image, ignored if the decode is shared
+     * @param listener Receives the image
+     */
+    public static void submit(String key, Decoder decoder, Listener listener) {
+        Request request;
+        synchronized (sInFlight) {
+            request = sInFlight.get(key);
+            if (request != null) {
+                request.mListeners.add(listener);
+                //only a queued request can be moved, changing the order of one in the queue would break it
+                if (!sExecutor.remove(request)) {
+                    return;
+                }
+            } else {
+                request = new Request(key, decoder);
+                request.mListeners.add(listener);
+                sInFlight.put(key, request);
+            }
+            request.mSequence = ++sSequence;
+        }
+
+        sExecutor.execute(request);
+    }
+
+    /**
+     * Stops delivering an image to a listener, the decode is dropped if it was the last one waiting and hasn't started
+     *
+     * @param key      The key the listener was submitted with
+     * @param listener The listener
+     */
+    public static void cancel(String key, Listener listener) {
+        synchronized (sInFlight) {
+            Request request = sInFlight.get(key);
+            if (request == null || !request.mListeners.remove(listener)) {
+                return;
+            }
+
+            if (request.mListeners.isEmpty() && sExecutor.remove(request)) {
+                sInFlight.remove(key);
+            }
+        }
+    }
+
+    /**
+     * A single decode with the listeners waiting for it
+     */
+    private static class Request implements Runnable, Comparable<Request> {
+
+        private final String mKey;
+        private final Decoder mDecoder;
+        private final ArrayList<Listener> mListeners = new ArrayList<Listener>(1);
+        private long mSequence;
+
+        public Request(String key, Decoder decoder) {
+            mKey = key;
+            mDecoder = decoder;
+        }
+
+        @Override
+        public int compareTo(Request another) {
+            //newest first
+            return mSequence > another.mSequence ? -1 : (mSequence < another.mSequence ? 1 : 0);
+        }
+
+        @Override
+        public void run() {
+            synchronized (sInFlight) {
+                // cancelled while it was being taken from the queue
+                if (mListeners.isEmpty()) {
+                    if (sInFlight.get(mKey) == this) {
+                        sInFlight.remove(mKey);
+                    }
+                    return;
+                }
+            }
+
+            final Bitmap bitmap;
+            try {
+                bitmap = mDecoder.decode();
+            } finally {
+                //requests submitted from now on decode again, the image is in the caches by then
+                synchronized (sInFlight) {
+                    if (sInFlight.get(mKey) == this) {
+                        sInFlight.remove(mKey);
+                    }
+                }
+            }
+
+            if (bitmap == null) {
+                return;
+            }
+
+            sHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    //listeners cancelled after the decode ended are still here, they must check it themselves
+                    ArrayList<Listener> listeners;
+                    synchronized (sInFlight) {
+                        listeners = new ArrayList<Listener>(mListeners);
+                    }
+                    for (Listener listener : listeners) {
+                        listener.onDecoded(bitmap);
+                    }
+                    mDecoder.onDelivered(bitmap);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,575 @@
+package net.analogyc.wordiary.models;
+
+import android.database.Cursor;
+
+import net.analogyc.wordiary.database.DBAdapter;
+
+/**
+ * In-memory copy of the days and their entries, as shown by the main list
+ * Days are read a page at a time (days with their counts, then the entries of those days) and served from compact arrays
+ * The day labels are formatted while reading, so nothing is formatted while scrolling
+ * Pages are read off the UI thread with readPage() and added on the UI thread with append(), single changes are
+ * patched in place with the add/remove/set methods
+ */
+public class EntryListSnapshot {
+
+    public static final int DEFAULT_PAGE_SIZE = 30;
+
+    private static final int[] EMPTY_IDS = new int[0];
+    private static final String[] EMPTY_STRINGS = new String[0];
+    private static final long[] EMPTY_TIMES = new long[0];
+    private static final int[] EMPTY_MOODS = new int[0];
+
+    private final int mPageSize;
+    private int mDayCount;
+    private boolean mHasMore = true;
+
+    private int[] mDayIds;
+    private String[] mDayFilenames;
+    private long[] mDayCreated;
+    private String[] mDayLabels;
+
+    // one array per day, with the entries ordered as in the list
+    private int[][] mEntryIds;
+    private String[][] mEntryMessages;
+    private int[][] mEntryMoods;
+    private long[][] mEntryCreated;
+
+    /**
+     * A page of days and entries read from the database, ready to be appended
+     */
+    public static class Page {
+
+        private final int mBeforeDayId;
+        private final int mPageSize;
+        private int mDayCount;
+
+        private int[] mDayIds;
+        private String[] mDayFilenames;
+        private long[] mDayCreated;
+        private String[] mDayLabels;
+        private int[][] mEntryIds;
+        private String[][] mEntryMessages;
+        private int[][] mEntryMoods;
+        private long[][] mEntryCreated;
+
+        private Page(int beforeDayId, int pageSize) {
+            mBeforeDayId = beforeDayId;
+            mPageSize = pageSize;
+        }
+    }
+
+    /**
+     * Creates an empty snapshot, fill it with pages from readPage()
+     *
+     * @param pageSize The number of days read by every page
+     */
+    public EntryListSnapshot(int pageSize) {
+        mPageSize = pageSize;
+        mDayIds = new int[pageSize];
+        mDayFilenames = new String[pageSize];
+        mDayCreated = new long[pageSize];
+        mDayLabels = new String[pageSize];
+        mEntryIds = new int[pageSize][];
+        mEntryMessages = new String[pageSize][];
+        mEntryMoods = new int[pageSize][];
+        mEntryCreated = new long[pageSize][];
+    }
+
+    /**
+     * Returns the key to pass to readPage() for the page after the loaded days
+     *
+     * @return The id of the oldest loaded day, or Integer.MAX_VALUE if nothing is loaded
+     */
+    public int getNextPageKey() {
+        return mDayCount == 0 ? Integer.MAX_VALUE : mDayIds[mDayCount - 1];
+    }
+
+    public int getPageSize() {
+        return mPageSize;
+    }
+
+    /**
+     * Reads a page of days older than the given one, can be run on any thread
+     *
+     * @param database    An open DBAdapter, it won't be closed
+     * @param beforeDayId The key from getNextPageKey()
+     * @param pageSize    The maximum number of days
+     * @return The page
+     */
+    public static Page readPage(DBAdapter database, int beforeDayId, int pageSize) {
+        Page page = new Page(beforeDayId, pageSize);
+        Cursor days = database.getDaysWithEntryCount(beforeDayId, pageSize);
+        int loaded = days.getCount();
+        page.mDayCount = loaded;
+        page.mDayIds = new int[loaded];
+        page.mDayFilenames = new String[loaded];
+        page.mDayCreated = new long[loaded];
+        page.mDayLabels = new String[loaded];
+        page.mEntryIds = new int[loaded][];
+        page.mEntryMessages = new String[loaded][];
+        page.mEntryMoods = new int[loaded][];
+        page.mEntryCreated = new long[loaded][];
+        if (loaded == 0) {
+            days.close();
+            return page;
+        }
+
+        int[] counts = new int[loaded];
+        for (int i = 0; days.moveToNext(); i++) {
+            page.mDayIds[i] = days.getInt(0);
+            page.mDayFilenames[i] = days.getString(1);
+            page.mDayCreated[i] = days.getLong(2);
+            counts[i] = days.getInt(3);
+            page.mDayLabels[i] = DateCodec.getDayLabel(days.getInt(4));
+        }
+        days.close();
+
+        // entries come ordered by day just like the days, so we can slice them in a single walk
+        Cursor entries = database.getEntriesGroupedByDay(page.mDayIds[0], page.mDayIds[loaded - 1]);
+        boolean hasRow = entries.moveToFirst();
+        for (int i = 0; i < loaded; i++) {
+            int dayId = page.mDayIds[i];
+
+            // skip anything written between the two queries for days we don't know about
+            while (hasRow && entries.getInt(1) > dayId) {
+                hasRow = entries.moveToNext();
+            }
+
+            int size = counts[i];
+            if (size == 0) {
+                page.mEntryIds[i] = EMPTY_IDS;
+                page.mEntryMessages[i] = EMPTY_STRINGS;
+                page.mEntryMoods[i] = EMPTY_MOODS;
+                page.mEntryCreated[i] = EMPTY_TIMES;
+                continue;
+            }
+
+            int[] ids = new int[size];
+            String[] messages = new String[size];
+            int[] moods = new int[size];
+            long[] created = new long[size];
+            int j = 0;
+            while (hasRow && j < size && entries.getInt(1) == dayId) {
+                ids[j] = entries.getInt(0);
+                messages[j] = entries.getString(2);
+                moods[j] = entries.getInt(3);
+                created[j] = entries.getLong(4);
+                j++;
+                hasRow = entries.moveToNext();
+            }
+
+            // an entry was deleted between the two queries
+            if (j < size) {
+                ids = copyOf(ids, j);
+                messages = copyOf(messages, j);
+                moods = copyOf(moods, j);
+                created = copyOf(created, j);
+            }
+
+            page.mEntryIds[i] = ids;
+            page.mEntryMessages[i] = messages;
+            page.mEntryMoods[i] = moods;
+            page.mEntryCreated[i] = created;
+        }
+        entries.close();
+
+        return page;
+    }
+
+    /**
+     * Appends a page after the loaded days, if it's the one that comes next
+     *
+     * @param page A page from readPage()
+     * @return False if the page was stale (already appended, or read for another position) and was ignored
+     */
+    public boolean append(Page page) {
+        if (!mHasMore || page.mBeforeDayId != getNextPageKey()) {
+            return false;
+        }
+
+        mHasMore = page.mDayCount == page.mPageSize;
+        ensureCapacity(mDayCount + page.mDayCount);
+        System.arraycopy(page.mDayIds, 0, mDayIds, mDayCount, page.mDayCount);
+        System.arraycopy(page.mDayFilenames, 0, mDayFilenames, mDayCount, page.mDayCount);
+        System.arraycopy(page.mDayCreated, 0, mDayCreated, mDayCount, page.mDayCount);
+        System.arraycopy(page.mDayLabels, 0, mDayLabels, mDayCount, page.mDayCount);
+        System.arraycopy(page.mEntryIds, 0, mEntryIds, mDayCount, page.mDayCount);
+        System.arraycopy(page.mEntryMessages, 0, mEntryMessages, mDayCount, page.mDayCount);
+        System.arraycopy(page.mEntryMoods, 0, mEntryMoods, mDayCount, page.mDayCount);
+        System.arraycopy(page.mEntryCreated, 0, mEntryCreated, mDayCount, page.mDayCount);
+        mDayCount += page.mDayCount;
+        return true;
+    }
+
+    /**
+     * Whether there might be older days still to load
+     *
+     * @return False when the last page came back incomplete
+     */
+    public boolean hasMore() {
+        return mHasMore;
+    }
+
+    /**
+     * Returns the position of a loaded day
+     *
+     * @param dayId The day id
+     * @return The position, or -1 if the day isn't loaded
+     */
+    public int indexOfDay(int dayId) {
+        // days are ordered by descending id
+        int low = 0;
+        int high = mDayCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int id = mDayIds[middle];
+            if (id > dayId) {
+                low = middle + 1;
+            } else if (id < dayId) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Inserts a new day without entries in its place
+     *
+     * @param dayId    The day id
+     * @param filename The photo, or an empty string
+     * @param created  The creation date in milliseconds
+     * @param dayKey   The day as a yyyyMMdd number
+     * @return The position of the day, or -1 if it belongs to a page that isn't loaded yet
+     */
+    public int addDay(int dayId, String filename, long created, int dayKey) {
+        int position = indexOfDay(dayId);
+        if (position != -1) {
+            return position;
+        }
+
+        position = 0;
+        while (position < mDayCount && mDayIds[position] > dayId) {
+            position++;
+        }
+        // older than everything loaded: the next page will bring it
+        if (position == mDayCount && mHasMore) {
+            return -1;
+        }
+
+        ensureCapacity(mDayCount + 1);
+        int moved = mDayCount - position;
+        System.arraycopy(mDayIds, position, mDayIds, position + 1, moved);
+        System.arraycopy(mDayFilenames, position, mDayFilenames, position + 1, moved);
+        System.arraycopy(mDayCreated, position, mDayCreated, position + 1, moved);
+        System.arraycopy(mDayLabels, position, mDayLabels, position + 1, moved);
+        System.arraycopy(mEntryIds, position, mEntryIds, position + 1, moved);
+        System.arraycopy(mEntryMessages, position, mEntryMessages, position + 1, moved);
+        System.arraycopy(mEntryMoods, position, mEntryMoods, position + 1, moved);
+        System.arraycopy(mEntryCreated, position, mEntryCreated, position + 1, moved);
+        mDayIds[position] = dayId;
+        mDayFilenames[position] = filename;
+        mDayCreated[position] = created;
+        mDayLabels[position] = DateCodec.getDayLabel(dayKey);
+        mEntryIds[position] = EMPTY_IDS;
+        mEntryMessages[position] = EMPTY_STRINGS;
+        mEntryMoods[position] = EMPTY_MOODS;
+        mEntryCreated[position] = EMPTY_TIMES;
+        mDayCount++;
+        return position;
+    }
+
+    /**
+     * Removes a day with all its entries
+     *
+     * @param dayId The day id
+     * @return False if the day isn't loaded
+     */
+    public boolean removeDay(int dayId) {
+        int position = indexOfDay(dayId);
+        if (position == -1) {
+            return false;
+        }
+
+        int moved = mDayCount - position - 1;
+        System.arraycopy(mDayIds, position + 1, mDayIds, position, moved);
+        System.arraycopy(mDayFilenames, position + 1, mDayFilenames, position, moved);
+        System.arraycopy(mDayCreated, position + 1, mDayCreated, position, moved);
+        System.arraycopy(mDayLabels, position + 1, mDayLabels, position, moved);
+        System.arraycopy(mEntryIds, position + 1, mEntryIds, position, moved);
+        System.arraycopy(mEntryMessages, position + 1, mEntryMessages, position, moved);
+        System.arraycopy(mEntryMoods, position + 1, mEntryMoods, position, moved);
+        System.arraycopy(mEntryCreated, position + 1, mEntryCreated, position, moved);
+        mDayCount--;
+        mDayFilenames[mDayCount] = null;
+        mDayLabels[mDayCount] = null;
+        mEntryIds[mDayCount] = null;
+        mEntryMessages[mDayCount] = null;
+        mEntryMoods[mDayCount] = null;
+        mEntryCreated[mDayCount] = null;
+        return true;
+    }
+
+    /**
+     * Sets the photo of a loaded day
+     *
+     * @param dayId    The day id
+     * @param filename The photo, or an empty string
+     * @return False if the day isn't loaded
+     */
+    public boolean setDayFilename(int dayId, String filename) {
+        int position = indexOfDay(dayId);
+        if (position == -1) {
+            return false;
+        }
+
+        mDayFilenames[position] = filename;
+        return true;
+    }
+
+    /**
+     * Adds a new entry on top of its day
+     *
+     * @return False if the day isn't loaded
+     */
+    public boolean addEntry(int dayId, int entryId, String message, int mood, long created) {
+        int position = indexOfDay(dayId);
+        if (position == -1 || indexOfEntry(position, entryId) != -1) {
+            return false;
+        }
+
+        // the list shows the newest entry first
+        mEntryIds[position] = insertFirst(mEntryIds[position], entryId);
+        mEntryMessages[position] = insertFirst(mEntryMessages[position], message);
+        mEntryMoods[position] = insertFirst(mEntryMoods[position], mood);
+        mEntryCreated[position] = insertFirst(mEntryCreated[position], created);
+        return true;
+    }
+
+    /**
+     * Removes an entry from its day, the day itself is kept
+     *
+     * @return False if the entry isn't loaded
+     */
+    public boolean removeEntry(int dayId, int entryId) {
+        int position = indexOfDay(dayId);
+        int entry = position == -1 ? -1 : indexOfEntry(position, entryId);
+        if (entry == -1) {
+            return false;
+        }
+
+        mEntryIds[position] = remove(mEntryIds[position], entry);
+        mEntryMessages[position] = remove(mEntryMessages[position], entry);
+        mEntryMoods[position] = remove(mEntryMoods[position], entry);
+        mEntryCreated[position] = remove(mEntryCreated[position], entry);
+        return true;
+    }
+
+    /**
+     * Changes the mood of a loaded entry
+     *
+     * @return False if the entry isn't loaded
+     */
+    public boolean setEntryMood(int dayId, int entryId, int mood) {
+        int position = indexOfDay(dayId);
+        int entry = position == -1 ? -1 : indexOfEntry(position, entryId);
+        if (entry == -1) {
+            return false;
+        }
+
+        mEntryMoods[position][entry] = mood;
+        return true;
+    }
+
+    /**
+     * Changes the message of a loaded entry
+     *
+     * @return False if the entry isn't loaded
+     */
+    public boolean setEntryMessage(int dayId, int entryId, String message) {
+        int position = indexOfDay(dayId);
+        int entry = position == -1 ? -1 : indexOfEntry(position, entryId);
+        if (entry == -1) {
+            return false;
+        }
+
+        mEntryMessages[position][entry] = message;
+        return true;
+    }
+
+    private int indexOfEntry(int day, int entryId) {
+        int[] ids = mEntryIds[day];
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == entryId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int[] insertFirst(int[] array, int value) {
+        int[] copy = new int[array.length + 1];
+        System.arraycopy(array, 0, copy, 1, array.length);
+        copy[0] = value;
+        return copy;
+    }
+
+    private static long[] insertFirst(long[] array, long value) {
+        long[] copy = new long[array.length + 1];
+        System.arraycopy(array, 0, copy, 1, array.length);
+        copy[0] = value;
+        return copy;
+    }
+
+    private static String[] insertFirst(String[] array, String value) {
+        String[] copy = new String[array.length + 1];
+        System.arraycopy(array, 0, copy, 1, array.length);
+        copy[0] = value;
+        return copy;
+    }
+
+    private static int[] remove(int[] array, int index) {
+        int[] copy = new int[array.length - 1];
+        System.arraycopy(array, 0, copy, 0, index);
+        System.arraycopy(array, index + 1, copy, index, copy.length - index);
+        return copy;
+    }
+
+    private static long[] remove(long[] array, int index) {
+        long[] copy = new long[array.length - 1];
+        System.arraycopy(array, 0, copy, 0, index);
+        System.arraycopy(array, index + 1, copy, index, copy.length - index);
+        return copy;
+    }
+
+    private static String[] remove(String[] array, int index) {
+        String[] copy = new String[array.length - 1];
+        System.arraycopy(array, 0, copy, 0, index);
+        System.arraycopy(array, index + 1, copy, index, copy.length - index);
+        return copy;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mDayIds.length) {
+            return;
+        }
+
+        int size = Math.max(capacity, mDayIds.length * 2);
+        mDayIds = copyOf(mDayIds, size);
+        mDayFilenames = copyOf(mDayFilenames, size);
+        mDayCreated = copyOf(mDayCreated, size);
+        mDayLabels = copyOf(mDayLabels, size);
+        mEntryIds = copyOf(mEntryIds, size);
+        mEntryMessages = copyOf(mEntryMessages, size);
+        mEntryMoods = copyOf(mEntryMoods, size);
+        mEntryCreated = copyOf(mEntryCreated, size);
+    }
+
+    private static int[] copyOf(int[] array, int length) {
+        int[] copy = new int[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+
+    private static long[] copyOf(long[] array, int length) {
+        long[] copy = new long[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+
+    private static String[] copyOf(String[] array, int length) {
+        String[] copy = new String[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+
+    private static int[][] copyOf(int[][] array, int length) {
+        int[][] copy = new int[length][];
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+
+    private static long[][] copyOf(long[][] array, int length) {
+        long[][] copy = new long[length][];
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+
+    private static String[][] copyOf(String[][] array, int length) {
+        String[][] copy = new String[length][];
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+
+    /**
+     * Returns the number of days loaded so far
+     *
+     * @return The number of days
+     */
+    public int getDayCount() {
+        return mDayCount;
+    }
+
+    public int getDayId(int day) {
+        return mDayIds[day];
+    }
+
+    public String getDayFilename(int day) {
+        return mDayFilenames[day];
+    }
+
+    /**
+     * Returns the creation date of a day
+     *
+     * @param day The position of the day
+     * @return The date in milliseconds
+     */
+    public long getDayCreated(int day) {
+        return mDayCreated[day];
+    }
+
+    /**
+     * Returns the date of a day as shown in the list
+     *
+     * @param day The position of the day
+     * @return The date in DateFormats.IMAGE
+     */
+    public String getDayLabel(int day) {
+        return mDayLabels[day];
+    }
+
+    /**
+     * Returns the number of entries of a day
+     *
+     * @param day The position of the day
+     * @return The number of entries
+     */
+    public int getEntryCount(int day) {
+        return mEntryIds[day].length;
+    }
+
+    public int getEntryId(int day, int entry) {
+        return mEntryIds[day][entry];
+    }
+
+    public String getEntryMessage(int day, int entry) {
+        return mEntryMessages[day][entry];
+    }
+
+    /**
+     * Returns the mood of an entry
+     *
+     * @param day   The position of the day
+     * @param entry The position of the entry
+     * @return The mood code, see Mood
+     */
+    public int getEntryMood(int day, int entry) {
+        return mEntryMoods[day][entry];
+    }
+
+    public long getEntryCreated(int day, int entry) {
+        return mEntryCreated[day][entry];
+    }
+}
@@ -0,0 +1,54 @@
+package net.analogyc.wordiary.models;
+
+import net.analogyc.wordiary.R;
+
+/**
+ * The moods an entry can have, stored in the database as small integer codes
+ * The code is the index of the drawable, so showing a mood is an array lookup
+ */
+public final class Mood {
+
+    // an entry whose mood hasn't been chosen
+    public static final int NONE = 0;
+
+    // the drawables by code, NONE has no image
+    private static final int[] DRAWABLES = {
+            0,
+            R.drawable.mood1,
+            R.drawable.mood2,
+            R.drawable.mood3,
+            R.drawable.mood4,
+            R.drawable.mood5,
+            R.drawable.mood6,
+            R.drawable.mood7,
+            R.drawable.mood8,
+            R.drawable.mood9,
+            R.drawable.mood10
+    };
+
+    // the number of moods that can be chosen, the codes go from 1 to COUNT
+    public static final int COUNT = DRAWABLES.length - 1;
+
+    private Mood() {
+    }
+
+    /**
+     * Returns true if the code is one of the moods that can be chosen
+     *
+     * @param code The mood code
+     * @return True for the codes from 1 to COUNT
+     */
+    public static boolean isValid(int code) {
+        return code > NONE && code <= COUNT;
+    }
+
+    /**
+     * Returns the image of a mood
+     *
+     * @param code The mood code
+     * @return The drawable resource id, or 0 if the mood has no image
+     */
+    public static int getDrawable(int code) {
+        return isValid(code) ? DRAWABLES[code] : 0;
+    }
+}
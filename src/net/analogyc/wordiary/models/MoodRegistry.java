@@ -0,0 +1,79 @@
+package net.analogyc.wordiary.models;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.widget.ImageView;
+
+/**
+ * The images of the moods, decoded once per process at the density of the screen
+ * Binding a mood to a view is an array lookup, and the view is touched only when its mood changes. The views of a
+ * mood share the state of its drawable, the pixels, but each view gets its own drawable since a drawable keeps its
+ * view as callback.
+ */
+public final class MoodRegistry {
+
+    private static MoodRegistry sInstance;
+
+    private final Resources mResources;
+    // the images and the state of their drawables by mood code, null for Mood.NONE
+    private final Bitmap[] mBitmaps = new Bitmap[Mood.COUNT + 1];
+    private final Drawable.ConstantState[] mStates = new Drawable.ConstantState[Mood.COUNT + 1];
+
+    private MoodRegistry(Resources resources) {
+        mResources = resources;
+        //decodeResource scales from the density of the drawable folder to the one of the screen
+        for (int code = 1; code <= Mood.COUNT; code++) {
+            mBitmaps[code] = BitmapFactory.decodeResource(resources, Mood.getDrawable(code));
+            if (mBitmaps[code] != null) {
+                mStates[code] = new BitmapDrawable(resources, mBitmaps[code]).getConstantState();
+            }
+        }
+    }
+
+    /**
+     * Returns the only instance, decoding the images on the first call
+     *
+     * @param context Any context
+     * @return The registry
+     */
+    public static synchronized MoodRegistry getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new MoodRegistry(context.getApplicationContext().getResources());
+        }
+
+        return sInstance;
+    }
+
+    /**
+     * Returns the image of a mood
+     *
+     * @param code The mood code
+     * @return The image, or null if the mood has none
+     */
+    public Bitmap getBitmap(int code) {
+        return Mood.isValid(code) ? mBitmaps[code] : null;
+    }
+
+    /**
+     * Shows a mood in a view, the tag of the view is used to remember which one it shows
+     *
+     * @param view The view, its tag must not be used for anything else
+     * @param code The mood code
+     */
+    public void bind(ImageView view, int code) {
+        Object shown = view.getTag();
+        if (shown instanceof Integer && (Integer) shown == code) {
+            return;
+        }
+
+        //a drawable of its own, sharing the pixels: the tag check keeps this to when the mood changes
+        Drawable.ConstantState state = Mood.isValid(code) ? mStates[code] : null;
+        view.setImageDrawable(state == null ? null : state.newDrawable(mResources));
+        //small Integers are cached, no allocation here
+        view.setTag(code);
+    }
+}
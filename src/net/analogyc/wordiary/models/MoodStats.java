@@ -0,0 +1,101 @@
+package net.analogyc.wordiary.models;
+
+/**
+ * Mood histograms read from the precomputed statistics, one per period
+ * A histogram of a date range has a single period; a trend has one period per day, week or month, in date order
+ * Every histogram is an array indexed by mood code
+ */
+public class MoodStats {
+
+    // the aggregates kept for every mood, the value is stored in the database
+    public static final int PERIOD_DAY = 0;
+    public static final int PERIOD_WEEK = 1;
+    public static final int PERIOD_MONTH = 2;
+    // a whole range of days, never stored
+    public static final int PERIOD_RANGE = 3;
+
+    private final int mPeriod;
+    private int[] mPeriodKeys = new int[8];
+    private int[][] mCounts = new int[8][];
+    private int mPeriodCount;
+
+    /**
+     * Creates empty statistics, filled by the DBAdapter
+     *
+     * @param period One of PERIOD_DAY, PERIOD_WEEK, PERIOD_MONTH and PERIOD_RANGE
+     */
+    public MoodStats(int period) {
+        mPeriod = period;
+    }
+
+    /**
+     * Adds entries with a mood to a period, periods must be added in order
+     *
+     * @param periodKey The day or the Monday as yyyyMMdd, or the month as yyyyMM
+     * @param mood      The mood code, unknown codes are counted as Mood.NONE
+     * @param count     The number of entries
+     */
+    public void add(int periodKey, int mood, int count) {
+        if (mPeriodCount == 0 || mPeriodKeys[mPeriodCount - 1] != periodKey) {
+            if (mPeriodCount == mPeriodKeys.length) {
+                int[] keys = new int[mPeriodCount * 2];
+                System.arraycopy(mPeriodKeys, 0, keys, 0, mPeriodCount);
+                mPeriodKeys = keys;
+                int[][] counts = new int[mPeriodCount * 2][];
+                System.arraycopy(mCounts, 0, counts, 0, mPeriodCount);
+                mCounts = counts;
+            }
+            mPeriodKeys[mPeriodCount] = periodKey;
+            mCounts[mPeriodCount] = new int[Mood.COUNT + 1];
+            mPeriodCount++;
+        }
+
+        mCounts[mPeriodCount - 1][Mood.isValid(mood) ? mood : Mood.NONE] += count;
+    }
+
+    /**
+     * Returns one of PERIOD_DAY, PERIOD_WEEK, PERIOD_MONTH and PERIOD_RANGE
+     */
+    public int getPeriod() {
+        return mPeriod;
+    }
+
+    /**
+     * Returns the number of periods with at least an entry
+     */
+    public int getPeriodCount() {
+        return mPeriodCount;
+    }
+
+    /**
+     * Returns the day or the Monday as yyyyMMdd, or the month as yyyyMM; a range is keyed by its first day
+     */
+    public int getPeriodKey(int period) {
+        return mPeriodKeys[period];
+    }
+
+    /**
+     * Returns the number of entries of a period with the given mood
+     *
+     * @param period The position of the period
+     * @param mood   The mood code
+     * @return The number of entries
+     */
+    public int getCount(int period, int mood) {
+        return mood >= 0 && mood <= Mood.COUNT ? mCounts[period][mood] : 0;
+    }
+
+    /**
+     * Returns the number of entries of a period
+     *
+     * @param period The position of the period
+     * @return The number of entries, whatever their mood
+     */
+    public int getTotal(int period) {
+        int total = 0;
+        for (int count : mCounts[period]) {
+            total += count;
+        }
+        return total;
+    }
+}
@@ -5,8 +5,7 @@ import android.os.Environment;
 import android.util.Log;
 
 import java.io.File;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.Locale;
 
 public class Photo {
 
@@ -42,7 +41,7 @@ public class Photo {
         }
 
         // Create a media file name
-        String timeStamp = new SimpleDateFormat(DateFormats.IMAGE_FILENAME).format(new Date());
+        String timeStamp = DateCodec.format(DateFormats.IMAGE_FILENAME, Locale.getDefault(), System.currentTimeMillis());
         File mediaFile;
         if (type == MEDIA_TYPE_IMAGE) {
             mediaFile = new File(mediaStorageDir.getPath() + File.separator +
@@ -0,0 +1,134 @@
+package net.analogyc.wordiary.models;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * Decodes a photo with as few pixels as the thumbnail needs
+ * The sample size is the largest power of two that keeps the image at least as large as the target, so the decoder
+ * never rounds it; for a center crop only the middle square is decoded, from Gingerbread MR1; JPEGs, which can't
+ * have transparency, are decoded in RGB_565.
+ */
+public final class PhotoDecoder {
+
+    private static final String TAG = "PhotoDecoder";
+
+    private PhotoDecoder() {
+    }
+
+    /**
+     * Decodes a photo
+     *
+     * @param path         The path of the file
+     * @param targetWidth  The width of the thumbnail, 0 for the whole image
+     * @param targetHeight The height of the thumbnail, 0 for the whole image
+     * @param centerCrop   True if only the middle square is going to be used
+     * @param pool         The pool to decode into
+     * @return The image, square if centerCrop is true and the platform allows it, or null if it can't be decoded
+     */
+    public static Bitmap decode(String path, int targetWidth, int targetHeight, boolean centerCrop, BitmapPool pool) {
+        // get the image width and height without loading it in memory
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        int width = options.outWidth;
+        int height = options.outHeight;
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+
+        options.inPreferredConfig = getPreferredConfig(options);
+        int side = Math.min(width, height);
+
+        if (centerCrop && width != height && Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD_MR1) {
+            options.inSampleSize = getSampleSize(side, side, targetWidth, targetHeight);
+            int left = (width - side) / 2;
+            int top = (height - side) / 2;
+            Bitmap bitmap = GingerbreadMR1.decodeRegion(path, new Rect(left, top, left + side, top + side), options,
+                    pool);
+            if (bitmap != null) {
+                return bitmap;
+            }
+        }
+
+        if (centerCrop) {
+            options.inSampleSize = getSampleSize(side, side, targetWidth, targetHeight);
+        } else {
+            options.inSampleSize = getSampleSize(width, height, targetWidth, targetHeight);
+        }
+        return pool.decodeFile(path, options);
+    }
+
+    /**
+     * Returns the largest power of two that keeps the sampled image at least as large as the target
+     *
+     * @param width        The width of the part to decode
+     * @param height       The height of the part to decode
+     * @param targetWidth  The width of the thumbnail, 0 for no sampling
+     * @param targetHeight The height of the thumbnail, 0 for no sampling
+     * @return The sample size
+     */
+    public static int getSampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int sample = 1;
+        if (targetWidth > 0 && targetHeight > 0) {
+            while (width / (sample * 2) >= targetWidth && height / (sample * 2) >= targetHeight) {
+                sample *= 2;
+            }
+        }
+        return sample;
+    }
+
+    /**
+     * Returns the configuration for a decode, from the type read with inJustDecodeBounds
+     *
+     * @param bounds The options of the bounds decode
+     * @return RGB_565 for JPEGs, that are always opaque, and ARGB_8888 for the rest
+     */
+    public static Bitmap.Config getPreferredConfig(BitmapFactory.Options bounds) {
+        return "image/jpeg".equals(bounds.outMimeType) ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+    }
+
+    /**
+     * Keeps the references to BitmapRegionDecoder out of PhotoDecoder, so it loads on every version
+     */
+    @TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+    private static class GingerbreadMR1 {
+
+        static Bitmap decodeRegion(String path, Rect region, BitmapFactory.Options options, BitmapPool pool) {
+            BitmapRegionDecoder decoder = null;
+            try {
+                decoder = BitmapRegionDecoder.newInstance(path, false);
+
+                // mutable and pooled like the whole image decodes
+                Bitmap reused = pool.prepareDecode(options, region.width(), region.height());
+                if (reused != null) {
+                    try {
+                        Bitmap bitmap = decoder.decodeRegion(region, options);
+                        if (bitmap != null) {
+                            return bitmap;
+                        }
+                    } catch (IllegalArgumentException e) {
+                        //the decoder refused it, decode in new pixels
+                    }
+                    pool.abandonDecode(options, reused);
+                }
+                return decoder.decodeRegion(region, options);
+            } catch (IOException e) {
+                //not a format the region decoder supports, the whole image is decoded instead
+                Log.w(TAG, "Couldn't decode a region of " + path, e);
+                return null;
+            } finally {
+                if (decoder != null) {
+                    decoder.recycle();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package net.analogyc.wordiary.models;
+
+/**
+ * A page of entries found by DBAdapter.search(), best matches first
+ * Only the snippets around the matches are read, never the whole messages; the matched words are given as
+ * [start, end) pairs of offsets into the snippet
+ */
+public class SearchResults {
+
+    private static final int[] NO_HIGHLIGHTS = new int[0];
+
+    // the markers put around the matched words by the database, stripped by setSnippet()
+    public static final String HIGHLIGHT_START = "\u0001";
+    public static final String HIGHLIGHT_END = "\u0002";
+
+    private final int mOffset;
+    private final int mNextOffset;
+    private final int mTotal;
+    private final int mRanked;
+    private int mCount;
+
+    private final int[] mEntryIds;
+    private final int[] mDayIds;
+    private final long[] mCreated;
+    private final int[] mMoods;
+    private final String[] mSnippets;
+    private final int[][] mHighlights;
+
+    /**
+     * Creates an empty page, filled by the DBAdapter
+     *
+     * @param offset   The position of the first result among all the matches
+     * @param total    The number of entries that match
+     * @param ranked   The number of matches that were ranked and can be paged, at most total
+     * @param capacity The number of matches this page covers, the ones deleted since the ranking are left out
+     */
+    public SearchResults(int offset, int total, int ranked, int capacity) {
+        mOffset = offset;
+        mNextOffset = offset + capacity;
+        mTotal = total;
+        mRanked = ranked;
+        mEntryIds = new int[capacity];
+        mDayIds = new int[capacity];
+        mCreated = new long[capacity];
+        mMoods = new int[capacity];
+        mSnippets = new String[capacity];
+        mHighlights = new int[capacity][];
+    }
+
+    /**
+     * Adds a result at the end of the page
+     *
+     * @param entryId The entry id
+     * @param dayId   The day id
+     * @param created The creation date in milliseconds
+     * @param mood    The mood code
+     * @param snippet The snippet, with the matched words between HIGHLIGHT_START and HIGHLIGHT_END
+     */
+    public void add(int entryId, int dayId, long created, int mood, String snippet) {
+        mEntryIds[mCount] = entryId;
+        mDayIds[mCount] = dayId;
+        mCreated[mCount] = created;
+        mMoods[mCount] = mood;
+        setSnippet(mCount, snippet);
+        mCount++;
+    }
+
+    private void setSnippet(int position, String snippet) {
+        if (snippet == null) {
+            mSnippets[position] = "";
+            mHighlights[position] = NO_HIGHLIGHTS;
+            return;
+        }
+
+        //strip the markers, remembering where they were
+        StringBuilder text = new StringBuilder(snippet.length());
+        int[] highlights = new int[8];
+        int found = 0;
+        int length = snippet.length();
+        for (int i = 0; i < length; i++) {
+            char c = snippet.charAt(i);
+            if (c == HIGHLIGHT_START.charAt(0) || c == HIGHLIGHT_END.charAt(0)) {
+                if (found == highlights.length) {
+                    int[] larger = new int[found * 2];
+                    System.arraycopy(highlights, 0, larger, 0, found);
+                    highlights = larger;
+                }
+                highlights[found++] = text.length();
+            } else {
+                text.append(c);
+            }
+        }
+
+        //markers always come in pairs
+        found -= found % 2;
+        int[] exact = new int[found];
+        System.arraycopy(highlights, 0, exact, 0, found);
+        mSnippets[position] = text.toString();
+        mHighlights[position] = exact;
+    }
+
+    /**
+     * Returns the number of results in this page
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Returns the position of the first result of this page among all the matches
+     */
+    public int getOffset() {
+        return mOffset;
+    }
+
+    /**
+     * Returns the position of the first match after this page, the offset of the next page
+     * It can be more than getOffset() + getCount() if entries were deleted since the ranking
+     */
+    public int getNextOffset() {
+        return mNextOffset;
+    }
+
+    /**
+     * Returns the number of entries that match the search
+     */
+    public int getTotal() {
+        return mTotal;
+    }
+
+    /**
+     * Returns true if there are ranked matches after this page, the older matches beyond the ranking are never paged
+     */
+    public boolean hasMore() {
+        return mNextOffset < mRanked;
+    }
+
+    public int getEntryId(int position) {
+        return mEntryIds[position];
+    }
+
+    public int getDayId(int position) {
+        return mDayIds[position];
+    }
+
+    public long getCreated(int position) {
+        return mCreated[position];
+    }
+
+    public int getMood(int position) {
+        return mMoods[position];
+    }
+
+    /**
+     * Returns the text around the matches, without markers
+     */
+    public String getSnippet(int position) {
+        return mSnippets[position];
+    }
+
+    /**
+     * Returns the matched words of a snippet, as [start, end) pairs of offsets
+     */
+    public int[] getHighlights(int position) {
+        return mHighlights[position];
+    }
+}
@@ -0,0 +1,386 @@
+package net.analogyc.wordiary.models;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size-bounded cache of the finished thumbnails in the cache directory of the app, shared by the whole process
+ * The files are kept in least recently used order by a journal that is replayed on first use: a line
+ * "W name size" when a file is written, "R name" when it is read and "D name" when it is removed
+ */
+public class ThumbnailCache {
+
+    private static final String TAG = "ThumbnailCache";
+    private static final String DIRECTORY = "thumbnails";
+    private static final String JOURNAL = "journal";
+    private static final String JOURNAL_TEMP = "journal.tmp";
+    private static final String HEADER = "wordiary-thumbnails 1";
+
+    private static final long MAX_SIZE = 16 * 1024 * 1024;
+    // lines of the journal that no longer describe a file, before the journal is rewritten
+    private static final int MAX_REDUNDANT = 1000;
+    private static final int JPEG_QUALITY = 90;
+
+    private static ThumbnailCache sInstance;
+
+    private final File mDirectory;
+    // the names of the files and their sizes, least recently used first
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<String, Long>(64, 0.75f, true);
+    private long mSize;
+    private int mRedundant;
+    private Writer mJournal;
+    private boolean mOpened;
+
+    private ThumbnailCache(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Returns the only instance, the journal is read by the first get() or put()
+     *
+     * @param context Any context
+     * @return The cache
+     */
+    public static synchronized ThumbnailCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ThumbnailCache(new File(context.getApplicationContext().getCacheDir(), DIRECTORY));
+        }
+
+        return sInstance;
+    }
+
+    /**
+     * Reads a thumbnail
+     *
+     * @param key The key of the thumbnail, it must change whenever the source or the transformation does
+     * @return The thumbnail, or null if it isn't cached
+     */
+    public Bitmap get(String key) {
+        String name = toFileName(key);
+
+        synchronized (this) {
+            if (!open() || mEntries.get(name) == null) {
+                return null;
+            }
+            append("R " + name);
+        }
+
+        //decode out of the lock, the file might be evicted meanwhile and then it's just a miss
+        String path = new File(mDirectory, name).getPath();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        options.inPreferredConfig = PhotoDecoder.getPreferredConfig(options);
+        Bitmap bitmap = BitmapPool.getInstance().decodeFile(path, options);
+        if (bitmap == null) {
+            synchronized (this) {
+                remove(name);
+            }
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * Stores a thumbnail, evicting the least recently used ones beyond the size limit
+     *
+     * @param key    The key of the thumbnail
+     * @param bitmap The thumbnail, stored as PNG if it has transparency and as JPEG otherwise
+     */
+    public void put(String key, Bitmap bitmap) {
+        String name = toFileName(key);
+
+        synchronized (this) {
+            if (!open()) {
+                return;
+            }
+        }
+
+        //compress out of the lock, in a file of this thread so two tasks with the same key don't mix
+        File temp = new File(mDirectory, name + "." + Thread.currentThread().getId() + ".tmp");
+        OutputStream out = null;
+        boolean written = false;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(temp));
+            if (bitmap.hasAlpha()) {
+                written = bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+            } else {
+                written = bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't write " + temp, e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    written = false;
+                }
+            }
+        }
+
+        synchronized (this) {
+            File file = new File(mDirectory, name);
+            if (!written || !temp.renameTo(file)) {
+                temp.delete();
+                return;
+            }
+
+            Long previous = mEntries.put(name, file.length());
+            if (previous != null) {
+                mSize -= previous;
+                mRedundant++;
+            }
+            mSize += file.length();
+            append("W " + name + " " + file.length());
+
+            trim();
+            if (mRedundant >= MAX_REDUNDANT && mRedundant >= mEntries.size()) {
+                rebuildJournal();
+            }
+        }
+    }
+
+    /**
+     * Reads the journal and drops the files it doesn't know about, only the first time
+     *
+     * @return True if the cache can be used
+     */
+    private boolean open() {
+        if (mOpened) {
+            return mJournal != null;
+        }
+        mOpened = true;
+
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(TAG, "Couldn't create " + mDirectory);
+            return false;
+        }
+
+        boolean complete = readJournal();
+
+        //files left by a crash while writing, or by a journal that was lost
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (!name.equals(JOURNAL) && !mEntries.containsKey(name)) {
+                    file.delete();
+                }
+            }
+        }
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (!new File(mDirectory, entry.getKey()).isFile()) {
+                mSize -= entry.getValue();
+                iterator.remove();
+                complete = false;
+            }
+        }
+
+        if (!complete || mRedundant >= MAX_REDUNDANT) {
+            rebuildJournal();
+        } else {
+            try {
+                mJournal = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(new File(mDirectory, JOURNAL), true), "US-ASCII"));
+            } catch (IOException e) {
+                Log.w(TAG, "Couldn't open the journal", e);
+            }
+        }
+
+        trim();
+        return mJournal != null;
+    }
+
+    /**
+     * Replays the journal into mEntries
+     *
+     * @return False if the journal is missing or damaged and must be rewritten
+     */
+    private boolean readJournal() {
+        File journal = new File(mDirectory, JOURNAL);
+        if (!journal.isFile()) {
+            return false;
+        }
+
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(journal), "US-ASCII"));
+            if (!HEADER.equals(reader.readLine())) {
+                return false;
+            }
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ");
+                if (parts.length == 3 && parts[0].equals("W")) {
+                    long size = Long.parseLong(parts[2]);
+                    Long previous = mEntries.put(parts[1], size);
+                    if (previous != null) {
+                        mSize -= previous;
+                        mRedundant++;
+                    }
+                    mSize += size;
+                } else if (parts.length == 2 && parts[0].equals("R")) {
+                    //only moves the file to the most recently used end
+                    mEntries.get(parts[1]);
+                    mRedundant++;
+                } else if (parts.length == 2 && parts[0].equals("D")) {
+                    Long previous = mEntries.remove(parts[1]);
+                    if (previous != null) {
+                        mSize -= previous;
+                    }
+                    mRedundant++;
+                } else {
+                    //the last line is cut if the process died while writing it
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't read the journal", e);
+            return false;
+        } catch (NumberFormatException e) {
+            return false;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    //nothing left to read
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a journal with just the files in the cache, in their order, and replaces the current one
+     */
+    private void rebuildJournal() {
+        if (mJournal != null) {
+            try {
+                mJournal.close();
+            } catch (IOException e) {
+                //it's going to be replaced
+            }
+            mJournal = null;
+        }
+
+        File temp = new File(mDirectory, JOURNAL_TEMP);
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), "US-ASCII"));
+            writer.write(HEADER);
+            writer.write('\n');
+            for (Map.Entry<String, Long> entry : mEntries.entrySet()) {
+                writer.write("W " + entry.getKey() + " " + entry.getValue() + "\n");
+            }
+            writer.close();
+            writer = null;
+
+            if (!temp.renameTo(new File(mDirectory, JOURNAL))) {
+                throw new IOException("Couldn't replace the journal");
+            }
+            mRedundant = 0;
+            mJournal = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(new File(mDirectory, JOURNAL), true), "US-ASCII"));
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't rewrite the journal", e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    //already failed
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a line to the journal, it's flushed at once since the process can be killed at any time
+     *
+     * @param line The line, without the new line
+     */
+    private void append(String line) {
+        if (mJournal == null) {
+            return;
+        }
+
+        try {
+            mJournal.write(line);
+            mJournal.write('\n');
+            mJournal.flush();
+        } catch (IOException e) {
+            //the journal will be rebuilt from the files on the next start
+            Log.w(TAG, "Couldn't write the journal", e);
+        }
+    }
+
+    /**
+     * Removes a file from the cache
+     *
+     * @param name The file name
+     */
+    private void remove(String name) {
+        Long size = mEntries.remove(name);
+        if (size != null) {
+            new File(mDirectory, name).delete();
+            mSize -= size;
+            mRedundant++;
+            append("D " + name);
+        }
+    }
+
+    /**
+     * Removes the least recently used files until the cache fits in MAX_SIZE
+     */
+    private void trim() {
+        while (mSize > MAX_SIZE && !mEntries.isEmpty()) {
+            remove(mEntries.keySet().iterator().next());
+        }
+    }
+
+    /**
+     * Turns a key into a file name, so any character can be used in the keys
+     *
+     * @param key The key
+     * @return The hex MD5 of the key
+     */
+    private static String toFileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16));
+                name.append(Character.forDigit(b & 0xf, 16));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(key.hashCode());
+        } catch (IOException e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+}